@@ -0,0 +1,50 @@
+package org.example;
+
+class AvgSpeed {
+    private String segmentId;
+    private String time;
+    private double avgSpeed;
+
+
+    public AvgSpeed(String segmentId, String time, double avgSpeed) {
+        this.segmentId = segmentId;
+        this.time = time;
+        this.avgSpeed = avgSpeed;
+    }
+
+    public AvgSpeed() {
+    }
+
+    // getters and setters
+    public String getSegmentId() {
+        return segmentId;
+    }
+
+    public void setSegmentId(String segmentId) {
+        this.segmentId = segmentId;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    public void setTime(String time) {
+        this.time = time;
+    }
+
+    public double getAvgSpeed() {
+        return avgSpeed;
+    }
+
+    public void setAvgSpeed(double avgSpeed) {
+        this.avgSpeed = avgSpeed;
+    }
+
+    public String toString() {
+        return "AvgSpeed{" +
+                "segmentId='" + segmentId + '\'' +
+                ", time='" + time + '\'' +
+                ", avgSpeed=" + avgSpeed +
+                '}';
+    }
+}
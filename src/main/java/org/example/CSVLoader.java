@@ -1,180 +1,128 @@
 package org.example;
 
-import com.opencsv.*;
-import com.opencsv.exceptions.CsvValidationException;
+import com.opencsv.CSVWriter;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Reader;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CSVLoader {
     public List<Segment> loadSegments(String filePath) throws Exception {
-        List<Segment> segments = new ArrayList<>();
-        CSVParser parser = new CSVParserBuilder()
-                .withSeparator('|')
-                .withIgnoreQuotations(true)
-                .build();
-
-        Reader reader = Files.newBufferedReader(Path.of(filePath));
-
-        try (CSVReader csvReader = new CSVReaderBuilder(reader)
-                .withSkipLines(1)
-                .withCSVParser(parser)
-                .build()) {
-            String[] line;
-            while ((line = csvReader.readNext()) != null) {
-                // Parse each line into a Segment object
-                Segment segment = new Segment();
-                segment.setId(line[0]);
-                segment.setGeometry(line[2]);
-                segments.add(segment);
-            }
+        try (Stream<Segment> stream = streamSegments(filePath)) {
+            return stream.collect(Collectors.toList());
         }
-        return segments;
     }
 
-    public List<SegmentPart> loadSegmentsParts(String filePath) throws IOException {
-        List<SegmentPart> segments = new ArrayList<>();
-
-        CSVParser parser = new CSVParserBuilder()
-                .withSeparator('|')
-                .withIgnoreQuotations(true)
-                .build();
-
-        Reader reader = Files.newBufferedReader(Path.of(filePath));
-
-        try (CSVReader csvReader = new CSVReaderBuilder(reader)
-                .withSkipLines(1)
-                .withCSVParser(parser)
-                .build()) {
-            String[] line;
-            while ((line = csvReader.readNext()) != null) {
-                String id = line[0];
-                String segmentId = line[0];
-                String geometry = line[13];
-                segments.add(new SegmentPart(id, segmentId, geometry, 0.0));
-            }
-        } catch (CsvValidationException e) {
-            throw new RuntimeException(e);
-        }
+    public List<Segment> loadSegments(String filePath, SegmentDictionary dictionary) throws Exception {
+        List<Segment> segments = loadSegments(filePath);
+        dictionary.encodeSegments(segments);
         return segments;
     }
 
-    public List<AvgSpeed> loadAvgSpeeds(String filePath) throws Exception {
-        List<AvgSpeed> avgSpeeds = new ArrayList<>();
-
-        CSVParser parser = new CSVParserBuilder()
-                .withSeparator(',')
-                .withIgnoreQuotations(true)
-                .build();
-
-        Reader reader = Files.newBufferedReader(Path.of(filePath));
-
-        try (CSVReader csvReader = new CSVReaderBuilder(reader)
-                .withSkipLines(1)
-                .withCSVParser(parser)
-                .build()) {
-            String[] line;
-            while ((line = csvReader.readNext()) != null) {
-                // Parse each line into an AvgSpeed object
-                AvgSpeed avgSpeed = new AvgSpeed();
-                avgSpeed.setSegmentId(line[0]);
-                avgSpeed.setTime(line[1]);
-                avgSpeed.setAvgSpeed(Double.parseDouble(line[2]));
-                avgSpeeds.add(avgSpeed);
-            }
-        }
-        return avgSpeeds;
+    public Stream<Segment> streamSegments(String filePath) throws IOException {
+        return DelimitedRowReader.stream(Path.of(filePath), '|', true, 0, 2)
+                .map(line -> {
+                    // Parse each line into a Segment object
+                    Segment segment = new Segment();
+                    segment.setId(line[0]);
+                    segment.setGeometry(line[1]);
+                    return segment;
+                });
     }
 
-    public void writeSegmentParts(String filePath, List<SegmentPart> segmentParts) throws IOException {
-        try (CSVWriter writer = new CSVWriter(new FileWriter(filePath), '|', CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END)) {
-            writer.writeNext(new String[]{"id", "segmentId", "geometry"});
-            for (SegmentPart segmentPart : segmentParts) {
-                writer.writeNext(new String[]{segmentPart.getId(), segmentPart.getSegmentId(), segmentPart.getGeometry()});
-            }
+    public List<SegmentPart> loadSegmentsParts(String filePath) throws IOException {
+        try (Stream<SegmentPart> stream = streamSegmentsParts(filePath)) {
+            return stream.collect(Collectors.toList());
         }
     }
-}
 
-class Segment {
-    private String id;
-    private String geometry; // The WKT representation of the geometry
-
-    // getters and setters
-    public String getId() {
-        return id;
+    public Stream<SegmentPart> streamSegmentsParts(String filePath) throws IOException {
+        // Only the id and the WKT geometry:1 column of the segments export are decoded.
+        // geometry:1 is read as the last field: the raw WKB column may contain '|' bytes.
+        return DelimitedRowReader.stream(Path.of(filePath), '|', true, 0, -1)
+                .map(line -> new SegmentPart(line[0], line[0], line[1], 0.0));
     }
 
-    public void setId(String id) {
-        this.id = id;
-    }
-
-    public String getGeometry() {
-        return geometry;
+    // Segments of the Overture export with coordinates decoded from the chosen geometry column.
+    // The WKT text is always passed through; rows whose WKB cannot be decoded fall back to it.
+    public Stream<SegmentGeometry> streamSegmentGeometries(String filePath, GeometryFormat format) throws IOException {
+        if (format == GeometryFormat.WKT) {
+            return DelimitedRowReader.stream(Path.of(filePath), '|', true, 0, -1)
+                    .map(line -> new SegmentGeometry(line[0], line[1], wktCoordinates(line[1])));
+        }
+        // The WKB column may contain '|' bytes, so it is read as everything between bbox and filename
+        return DelimitedRowReader.open(Path.of(filePath), '|', true, 0, -1)
+                .withSpan(9, -5)
+                .stream()
+                .map(line -> new SegmentGeometry(line[0], line[1], wkbCoordinates(line[2], line[1])));
+    }
+
+    private static double[] wkbCoordinates(String wkb, String wkt) {
+        try {
+            return WkbDecoder.decodeLineString(wkb);
+        } catch (RuntimeException e) {
+            return wktCoordinates(wkt);
+        }
     }
 
-    public void setGeometry(String geometry) {
-        this.geometry = geometry;
+    private static double[] wktCoordinates(String wkt) {
+        return WktTokenizer.parseLineString(wkt);
     }
 
-    public String toString() {
-        return "Segment{" +
-                "id='" + id + '\'' +
-                ", geometry='" + geometry + '\'' +
-                '}';
+    public List<AvgSpeed> loadAvgSpeeds(String filePath) throws Exception {
+        try (Stream<AvgSpeed> stream = streamAvgSpeeds(filePath)) {
+            return stream.collect(Collectors.toList());
+        }
     }
-}
-
-class AvgSpeed {
-    private String segmentId;
-    private String time;
-    private double avgSpeed;
-
 
-    public AvgSpeed(String segmentId, String time, double avgSpeed) {
-        this.segmentId = segmentId;
-        this.time = time;
-        this.avgSpeed = avgSpeed;
+    public Stream<AvgSpeed> streamAvgSpeeds(String filePath) throws IOException {
+        return DelimitedRowReader.stream(Path.of(filePath), ',', true, 0, 1, 2)
+                .map(line -> new AvgSpeed(line[0], line[1], Double.parseDouble(line[2])));
     }
 
-    public AvgSpeed() {
+    // Same rows as loadAvgSpeeds, in the same order, parsed on all cores
+    public List<AvgSpeed> loadAvgSpeedsParallel(String filePath) throws IOException {
+        return ParallelRowLoader.load(Path.of(filePath), ',', true,
+                line -> new AvgSpeed(line[0], line[1], Double.parseDouble(line[2])), 0, 1, 2);
     }
 
-    // getters and setters
-    public String getSegmentId() {
-        return segmentId;
+    public void writeSegmentParts(String filePath, List<SegmentPart> segmentParts) throws IOException {
+        try (CSVWriter writer = new CSVWriter(new FileWriter(filePath), '|', CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END)) {
+            writer.writeNext(new String[]{"id", "segmentId", "geometry"});
+            for (SegmentPart segmentPart : segmentParts) {
+                writer.writeNext(new String[]{segmentPart.getId(), segmentPart.getSegmentId(), segmentPart.getGeometry()});
+            }
+        }
     }
+}
 
-    public void setSegmentId(String segmentId) {
-        this.segmentId = segmentId;
-    }
+class SegmentGeometry {
+    private final String id;
+    private final String wkt;
+    private final double[] coordinates; // (lat, lon) pairs interleaved
 
-    public String getTime() {
-        return time;
+    public SegmentGeometry(String id, String wkt, double[] coordinates) {
+        this.id = id;
+        this.wkt = wkt;
+        this.coordinates = coordinates;
     }
 
-    public void setTime(String time) {
-        this.time = time;
+    public String getId() {
+        return id;
     }
 
-    public double getAvgSpeed() {
-        return avgSpeed;
+    public String getWkt() {
+        return wkt;
     }
 
-    public void setAvgSpeed(double avgSpeed) {
-        this.avgSpeed = avgSpeed;
+    public double[] getCoordinates() {
+        return coordinates;
     }
 
-    public String toString() {
-        return "AvgSpeed{" +
-                "segmentId='" + segmentId + '\'' +
-                ", time='" + time + '\'' +
-                ", avgSpeed=" + avgSpeed +
-                '}';
+    public int getVertexCount() {
+        return coordinates.length / 2;
     }
 }
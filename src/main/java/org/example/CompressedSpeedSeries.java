@@ -0,0 +1,208 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Gorilla-style compressed speed series of one segment. Points are cut into blocks of up
+// to BLOCK_POINTS; every block starts byte aligned with its point count, first timestamp
+// and first value, so blocks decode independently and in streaming fashion.
+// Timestamps (epoch seconds, non-decreasing) are stored as delta-of-delta, speeds are
+// quantized to 1 / SPEED_SCALE and stored as deltas, both with Gorilla's variable-length
+// buckets: a regular feed costs one bit per timestamp and a steady speed one bit per value.
+public class CompressedSpeedSeries {
+    public static final int BLOCK_POINTS = 1024;
+    public static final int SPEED_SCALE = 100; // Exact for speeds with two decimals
+
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final int pointCount;
+
+    private CompressedSpeedSeries(byte[] data, int[] blockOffsets, int pointCount) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.pointCount = pointCount;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    // Encoded size including the block index
+    public long getSizeInBytes() {
+        return data.length + 4L * blockOffsets.length;
+    }
+
+    // Decodes one block into the arrays (at least BLOCK_POINTS long), returns its point count
+    public int decodeBlock(int block, long[] epochSeconds, double[] speeds) {
+        BitReader in = new BitReader(data, blockOffsets[block]);
+        int count = (int) in.read(16) + 1;
+        long time = in.read(64);
+        long value = (int) in.read(32);
+        long delta = 0;
+        epochSeconds[0] = time;
+        speeds[0] = (double) value / SPEED_SCALE;
+        for (int i = 1; i < count; i++) {
+            delta += readSigned(in);
+            time += delta;
+            value += readSigned(in);
+            epochSeconds[i] = time;
+            speeds[i] = (double) value / SPEED_SCALE;
+        }
+        return count;
+    }
+
+    // '0' for zero, then '10', '110', '1110' and '1111' prefixes for 7, 9, 12 and 32 bit values
+    private static void writeSigned(BitWriter out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else if (value >= -63 && value <= 64) {
+            out.write(0b10, 2);
+            out.write(value + 63, 7);
+        } else if (value >= -255 && value <= 256) {
+            out.write(0b110, 3);
+            out.write(value + 255, 9);
+        } else if (value >= -2047 && value <= 2048) {
+            out.write(0b1110, 4);
+            out.write(value + 2047, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(value, 32);
+        }
+    }
+
+    private static long readSigned(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        } else if (in.read(1) == 0) {
+            return in.read(7) - 63;
+        } else if (in.read(1) == 0) {
+            return in.read(9) - 255;
+        } else if (in.read(1) == 0) {
+            return in.read(12) - 2047;
+        } else {
+            return (int) in.read(32);
+        }
+    }
+
+    public static class Builder {
+        private final BitWriter out = new BitWriter();
+        private int[] blockOffsets = new int[4];
+        private int blockCount;
+        private int pointCount;
+        private int blockPoints;
+        private int blockCountPosition;
+        private long lastTime;
+        private long lastDelta;
+        private long lastValue;
+
+        public Builder add(long epochSecond, double speed) {
+            long value = Math.round(speed * SPEED_SCALE);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Speed out of range: " + speed);
+            }
+            if (pointCount > 0 && epochSecond < lastTime) {
+                throw new IllegalArgumentException("Timestamps must not decrease: " + epochSecond + " < " + lastTime);
+            }
+
+            if (blockPoints == BLOCK_POINTS || pointCount == 0) {
+                startBlock(epochSecond, value);
+            } else {
+                long delta = epochSecond - lastTime;
+                writeSigned(out, delta - lastDelta);
+                writeSigned(out, value - lastValue);
+                lastDelta = delta;
+                out.patch16(blockCountPosition, blockPoints);
+                blockPoints++;
+            }
+            lastTime = epochSecond;
+            lastValue = value;
+            pointCount++;
+            return this;
+        }
+
+        private void startBlock(long epochSecond, long value) {
+            out.alignToByte();
+            if (blockCount == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+            }
+            blockOffsets[blockCount++] = out.bytePosition();
+            blockCountPosition = out.bytePosition();
+            out.write(0, 16); // Point count - 1, patched as points arrive
+            out.write(epochSecond, 64);
+            out.write(value, 32);
+            blockPoints = 1;
+            lastDelta = 0;
+        }
+
+        public CompressedSpeedSeries build() {
+            return new CompressedSpeedSeries(out.toByteArray(), Arrays.copyOf(blockOffsets, blockCount), pointCount);
+        }
+    }
+
+    private static class BitWriter {
+        private byte[] bytes = new byte[64];
+        private long bitPosition;
+
+        // Writes the low bits of value, most significant first
+        void write(long value, int bits) {
+            ensureCapacity(bitPosition + bits);
+            for (int i = bits - 1; i >= 0; i--) {
+                if ((value >>> i & 1) != 0) {
+                    bytes[(int) (bitPosition >>> 3)] |= (byte) (0x80 >>> (bitPosition & 7));
+                }
+                bitPosition++;
+            }
+        }
+
+        void patch16(int bytePosition, int value) {
+            bytes[bytePosition] = (byte) (value >>> 8);
+            bytes[bytePosition + 1] = (byte) value;
+        }
+
+        void alignToByte() {
+            bitPosition = (bitPosition + 7) & ~7L;
+        }
+
+        int bytePosition() {
+            return (int) (bitPosition >>> 3);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((bitPosition + 7) >>> 3));
+        }
+
+        private void ensureCapacity(long bits) {
+            int needed = (int) ((bits + 7) >>> 3);
+            if (needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+            }
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] bytes;
+        private long bitPosition;
+
+        BitReader(byte[] bytes, int bytePosition) {
+            this.bytes = bytes;
+            this.bitPosition = (long) bytePosition << 3;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int bitInByte = (int) (bitPosition & 7);
+                int available = Math.min(8 - bitInByte, bits);
+                int current = bytes[(int) (bitPosition >>> 3)] & 0xFF;
+                int chunk = (current >>> (8 - bitInByte - available)) & ((1 << available) - 1);
+                value = value << available | chunk;
+                bitPosition += available;
+                bits -= available;
+            }
+            return value;
+        }
+    }
+}
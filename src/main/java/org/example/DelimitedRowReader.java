@@ -0,0 +1,281 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Streams rows of a delimited file straight from a FileChannel. Only the requested
+// columns are decoded into Strings, the rest of each line is skipped byte by byte.
+// The returned array holds the projected fields in the order they were requested
+// and is reused between rows, so callers must copy anything they want to keep.
+// Negative column indexes count from the end of the row (-1 is the last field),
+// which keeps trailing columns addressable when an earlier field contains the separator.
+// A span (see withSpan) recovers such a field as the raw text between fixed leading and
+// trailing columns.
+public class DelimitedRowReader implements Iterator<String[]>, Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final byte separator;
+    private final int[] columns;
+    private final int[] slotOfColumn;
+    private final int[] slotOfTrailingColumn;
+    private String[] row;
+    private int spanFirst = -1;
+    private int spanLast;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private long position;
+    private long end;
+    private byte[] line = new byte[4096];
+    private int lineLength;
+    private boolean lineReady;
+    private boolean exhausted;
+
+    public DelimitedRowReader(FileChannel channel, long start, long end, char separator, int... columns) {
+        this(channel, false, start, end, separator, columns);
+    }
+
+    private DelimitedRowReader(FileChannel channel, boolean ownsChannel, long start, long end, char separator, int... columns) {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.position = start;
+        this.end = end;
+        this.separator = (byte) separator;
+        this.columns = columns.clone();
+        this.row = new String[columns.length];
+
+        int maxColumn = Arrays.stream(columns).max().orElse(-1);
+        int minColumn = Arrays.stream(columns).min().orElse(0);
+        this.slotOfColumn = new int[Math.max(maxColumn + 1, 0)];
+        this.slotOfTrailingColumn = new int[Math.max(-minColumn, 0)];
+        Arrays.fill(slotOfColumn, -1);
+        Arrays.fill(slotOfTrailingColumn, -1);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] >= 0) {
+                slotOfColumn[columns[i]] = i;
+            } else {
+                slotOfTrailingColumn[-columns[i] - 1] = i;
+            }
+        }
+        buffer.limit(0);
+    }
+
+    public static DelimitedRowReader open(Path path, char separator, boolean skipHeader, int... columns) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        DelimitedRowReader reader = new DelimitedRowReader(channel, true, 0, channel.size(), separator, columns);
+        if (skipHeader && reader.readLine()) {
+            reader.lineReady = false;
+        }
+        return reader;
+    }
+
+    public static Stream<String[]> stream(Path path, char separator, boolean skipHeader, int... columns) throws IOException {
+        return open(path, separator, skipHeader, columns).stream();
+    }
+
+    // Appends one more field to every row: the raw text from the start of leading column
+    // `first` to the end of trailing column `last` (negative), separators included.
+    public DelimitedRowReader withSpan(int first, int last) {
+        if (first < 0 || last >= 0) {
+            throw new IllegalArgumentException("Span must run from a leading to a trailing column");
+        }
+        spanFirst = first;
+        spanLast = last;
+        row = new String[columns.length + 1];
+        return this;
+    }
+
+    // Continues with the byte range [start, end) of the channel, keeping the buffers
+    public DelimitedRowReader reset(long start, long end) {
+        this.position = start;
+        this.end = end;
+        buffer.limit(0);
+        lineReady = false;
+        exhausted = false;
+        return this;
+    }
+
+    public Stream<String[]> stream() {
+        Spliterator<String[]> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::closeQuietly);
+    }
+
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (lineReady) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        try {
+            return readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        lineReady = false;
+        splitLine();
+        return row;
+    }
+
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean sawAny = false;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                exhausted = true;
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                lineReady = sawAny && lineLength > 0;
+                return lineReady;
+            }
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                sawAny = true;
+                if (b == '\n') {
+                    if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                        lineLength--;
+                    }
+                    if (lineLength == 0) {
+                        // Blank lines carry no row
+                        sawAny = false;
+                        continue;
+                    }
+                    lineReady = true;
+                    return true;
+                }
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = b;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (position >= end) {
+            return false;
+        }
+        buffer.clear();
+        long remaining = end - position;
+        if (remaining < buffer.capacity()) {
+            buffer.limit((int) remaining);
+        }
+        int read = channel.read(buffer, position);
+        if (read <= 0) {
+            return false;
+        }
+        position += read;
+        buffer.flip();
+        return true;
+    }
+
+    private void splitLine() {
+        Arrays.fill(row, null);
+        if (slotOfColumn.length > 0) {
+            splitLeading();
+        }
+        if (slotOfTrailingColumn.length > 0) {
+            splitTrailing();
+        }
+        if (spanFirst >= 0) {
+            splitSpan();
+        }
+    }
+
+    private void splitSpan() {
+        int from = 0;
+        for (int column = 0; column < spanFirst && from <= lineLength; from++) {
+            if (from == lineLength || line[from] == separator) {
+                column++;
+            }
+        }
+        int to = lineLength;
+        for (int column = -1; column > spanLast && to >= 0; to--) {
+            if (to == 0 || line[to - 1] == separator) {
+                column--;
+            }
+        }
+        // to now sits on the separator that ends the span
+        row[columns.length] = from <= to ? decode(from, to) : null;
+    }
+
+    private void splitLeading() {
+        int column = 0;
+        int fieldStart = 0;
+        for (int i = 0; i <= lineLength; i++) {
+            if (i == lineLength || line[i] == separator) {
+                if (slotOfColumn[column] >= 0) {
+                    row[slotOfColumn[column]] = decode(fieldStart, i);
+                }
+                column++;
+                if (column >= slotOfColumn.length) {
+                    return;
+                }
+                fieldStart = i + 1;
+            }
+        }
+    }
+
+    private void splitTrailing() {
+        int column = 0;
+        int fieldEnd = lineLength;
+        for (int i = lineLength - 1; i >= -1; i--) {
+            if (i == -1 || line[i] == separator) {
+                if (slotOfTrailingColumn[column] >= 0) {
+                    row[slotOfTrailingColumn[column]] = decode(i + 1, fieldEnd);
+                }
+                column++;
+                if (column >= slotOfTrailingColumn.length) {
+                    return;
+                }
+                fieldEnd = i;
+            }
+        }
+    }
+
+    private String decode(int from, int to) {
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
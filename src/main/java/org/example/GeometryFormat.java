@@ -0,0 +1,9 @@
+package org.example;
+
+// Which geometry column of the Overture segments export to read coordinates from
+public enum GeometryFormat {
+    // The text geometry:1 column, e.g. LINESTRING (24.03 49.82, ...)
+    WKT,
+    // The hex-escaped binary geometry column
+    WKB
+}
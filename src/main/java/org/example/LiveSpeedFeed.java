@@ -0,0 +1,219 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Incremental speed ingestion. Observations arrive through offer() or by tailing an
+// append-only file in the avg_speeds.csv format (segment_id,time,avg_speed); a single
+// worker thread folds them into the SpeedCube and, at most every FLUSH_INTERVAL_MS,
+// hands the touched segment x slot cells to the listener. Nothing is reloaded.
+public class LiveSpeedFeed implements Closeable {
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final long FLUSH_INTERVAL_MS = 250;
+    private static final int NEWLINE_SCAN_SIZE = 64 * 1024;
+
+    public interface Listener {
+        // cells are segment * slotCount + slot, each reported once per flush
+        void speedsUpdated(int[] cells);
+    }
+
+    private final SegmentDictionary dictionary;
+    private final TimeSlots slots;
+    private final SpeedCube cube;
+    private final Listener listener;
+    private final BlockingQueue<Observation> queue = new LinkedBlockingQueue<>();
+    private final BitSet dirtyCells = new BitSet();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private FileChannel tailed;
+    private long tailPosition;
+    private DelimitedRowReader tailReader;
+    private ByteBuffer newlineScan;
+    private volatile long ingested;
+    private volatile long skipped;
+
+    // The cube is owned by the feed's worker thread from now on
+    public LiveSpeedFeed(SegmentDictionary dictionary, TimeSlots slots, SpeedCube cube, Listener listener) {
+        this.dictionary = dictionary;
+        this.slots = slots;
+        this.cube = cube;
+        this.listener = listener;
+        this.worker = new Thread(this::run, "live-speed-feed");
+        this.worker.setDaemon(true);
+    }
+
+    // Follows the file from its current end; only lines appended afterwards are ingested
+    public static LiveSpeedFeed tail(Path file, SegmentDictionary dictionary, TimeSlots slots, SpeedCube cube,
+                                     Listener listener) throws IOException {
+        LiveSpeedFeed feed = new LiveSpeedFeed(dictionary, slots, cube, listener);
+        feed.tailed = FileChannel.open(file, StandardOpenOption.READ);
+        feed.tailPosition = feed.tailed.size();
+        feed.tailReader = new DelimitedRowReader(feed.tailed, 0, 0, ',', 0, 1, 2);
+        feed.newlineScan = ByteBuffer.allocate(NEWLINE_SCAN_SIZE);
+        feed.start();
+        return feed;
+    }
+
+    public LiveSpeedFeed start() {
+        worker.start();
+        return this;
+    }
+
+    // Thread-safe; time is "yyyy-MM-dd HH:mm:ss"
+    public void offer(String segmentId, String time, double avgSpeed) {
+        queue.add(new Observation(segmentId, time, avgSpeed));
+    }
+
+    public long getIngestedCount() {
+        return ingested;
+    }
+
+    // Unknown segments, malformed lines and times or speeds out of range
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    private void run() {
+        List<Observation> batch = new ArrayList<>();
+        long nextPoll = 0;
+        long nextFlush = System.currentTimeMillis() + FLUSH_INTERVAL_MS;
+        try {
+            while (running) {
+                Observation first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (Observation observation : batch) {
+                        try {
+                            add(observation.segmentId, observation.time, observation.avgSpeed);
+                        } catch (RuntimeException e) { // E.g. a malformed time
+                            skipped++;
+                        }
+                    }
+                    batch.clear();
+                }
+
+                long now = System.currentTimeMillis();
+                if (tailed != null && now >= nextPoll) {
+                    try {
+                        readAppendedLines();
+                    } catch (IOException e) { // Retried at the next poll
+                        e.printStackTrace();
+                    }
+                    nextPoll = now + POLL_INTERVAL_MS;
+                }
+                if (now >= nextFlush) {
+                    flush();
+                    nextFlush = now + FLUSH_INTERVAL_MS;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Rejected rows are counted and leave the cube unchanged; slotOf and the cube throw for a
+    // time or cell out of range
+    private void add(String segmentId, String time, double avgSpeed) {
+        int segment = dictionary.indexOf(segmentId);
+        if (segment < 0 || !(avgSpeed >= 0) || Double.isInfinite(avgSpeed)) {
+            skipped++;
+            return;
+        }
+        int slot = slots.slotOf(time);
+        cube.add(segment, slot, avgSpeed);
+        dirtyCells.set(segment * slots.getSlotCount() + slot);
+        ingested++;
+    }
+
+    // Ingests the complete lines appended since the last poll; a trailing partial line, however
+    // long, is left for a later poll. A truncated file is followed again from its start.
+    private void readAppendedLines() throws IOException {
+        long size = tailed.size();
+        if (size < tailPosition) {
+            tailPosition = 0;
+        }
+        long end = lastNewline(tailPosition, size) + 1;
+        if (end <= tailPosition) {
+            return;
+        }
+        tailReader.reset(tailPosition, end);
+        while (tailReader.hasNext()) {
+            String[] line = tailReader.next();
+            try {
+                add(line[0], line[1], Double.parseDouble(line[2]));
+            } catch (RuntimeException e) { // Header, short or garbled line
+                skipped++;
+            }
+        }
+        tailPosition = end;
+    }
+
+    // Position of the last '\n' in [from, to), scanning backwards; from - 1 when there is none
+    private long lastNewline(long from, long to) throws IOException {
+        long blockEnd = to;
+        while (blockEnd > from) {
+            long blockStart = Math.max(from, blockEnd - NEWLINE_SCAN_SIZE);
+            newlineScan.clear().limit((int) (blockEnd - blockStart));
+            while (newlineScan.hasRemaining() && tailed.read(newlineScan, blockStart + newlineScan.position()) > 0) {
+                // Read the whole block
+            }
+            for (int i = newlineScan.position() - 1; i >= 0; i--) {
+                if (newlineScan.get(i) == '\n') {
+                    return blockStart + i;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return from - 1;
+    }
+
+    private void flush() {
+        if (dirtyCells.isEmpty()) {
+            return;
+        }
+        int[] cells = dirtyCells.stream().toArray();
+        dirtyCells.clear();
+        try {
+            listener.speedsUpdated(cells);
+        } catch (RuntimeException e) { // Keeps the feed alive, the cells are updated in the cube anyway
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false; // The worker notices within one poll interval
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (tailed != null) {
+            tailed.close();
+        }
+    }
+
+    private static class Observation {
+        final String segmentId;
+        final String time;
+        final double avgSpeed;
+
+        Observation(String segmentId, String time, double avgSpeed) {
+            this.segmentId = segmentId;
+            this.time = time;
+            this.avgSpeed = avgSpeed;
+        }
+    }
+}
@@ -3,8 +3,6 @@ package org.example;
 import org.jxmapviewer.JXMapViewer;
 import org.jxmapviewer.input.PanMouseInputListener;
 import org.jxmapviewer.input.ZoomMouseWheelListenerCenter;
-import org.jxmapviewer.painter.CompoundPainter;
-import org.jxmapviewer.painter.Painter;
 import org.jxmapviewer.viewer.DefaultTileFactory;
 import org.jxmapviewer.viewer.GeoPosition;
 import org.jxmapviewer.viewer.TileFactory;
@@ -12,52 +10,98 @@ import org.jxmapviewer.viewer.TileFactoryInfo;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class MapVisualizer {
-    private static List<Segment> segments;
-    private static List<TimePeriodAvgSpeed> avgSpeeds;
+    private static final long OVERLAY_TILE_CACHE_BYTES = 256L << 20;
+
+    private static TrafficSnapshot snapshot;
+    private static SimplificationPyramid pyramid;
+    private static SegmentRTree spatialIndex;
+    private static TimeSliceIndex timeSlices;
     private static JXMapViewer mapViewer;
-    private static List<Painter<JXMapViewer>> painters;
+    private static TrafficOverlayPainter overlayPainter;
+    private static OverlayTileCache tileCache;
+    private static TiledOverlayPainter tiledPainter;
+    private static TimeLapsePlayer player;
 
     public static void main(String[] args) throws Exception {
-        // Load data
-        CSVLoader loader = new CSVLoader();
-        segments = loader.loadSegments("segments.csv");
-        List<AvgSpeed> rawAvgSpeeds = loader.loadAvgSpeeds("avg_speeds.csv");
+        // Time slot length in minutes (default 60), optionally crossed with the day of week
+        // ("day" or "week"), a speed file to follow for live updates ("-" for none) and the
+        // speed to colour by: "mean" (default) or a percentile such as "p85"
+        TimeSlots slots = new TimeSlots(
+                args.length > 0 ? Integer.parseInt(args[0]) : 60,
+                args.length > 1 && args[1].equalsIgnoreCase("week"));
+        Path liveSpeedsPath = args.length > 2 && !args[2].equals("-") ? Path.of(args[2]) : null;
+        double colourQuantile = parseColourQuantile(args.length > 3 ? args[3] : "mean");
+        boolean byQuantile = !Double.isNaN(colourQuantile);
+
+        // Load data, preferring the binary snapshot when it is newer than the CSV inputs
+        Path snapshotPath = Path.of("traffic.snapshot");
+        Path segmentsPath = Path.of("segments.csv");
+        Path avgSpeedsPath = Path.of("avg_speeds.csv");
+        Path quantilesPath = Path.of("traffic.quantiles");
+        if (TrafficSnapshot.isUpToDate(snapshotPath, segmentsPath, avgSpeedsPath)) {
+            try {
+                snapshot = TrafficSnapshot.read(snapshotPath);
+            } catch (IOException e) { // E.g. written by an older version
+                System.out.println("Rebuilding the snapshot: " + e.getMessage());
+            }
+        }
+        SpeedQuantiles quantiles = null;
+        if (snapshot != null && byQuantile && TrafficSnapshot.isUpToDate(quantilesPath, segmentsPath, avgSpeedsPath)) {
+            quantiles = SpeedQuantiles.read(quantilesPath);
+            if (quantiles.getSegmentCount() != snapshot.getSegmentCount() || quantiles.getSlotCount() != slots.getSlotCount()) {
+                quantiles = null;
+            }
+        }
+        if (snapshot == null || !snapshot.getSlots().equals(slots) || (byQuantile && quantiles == null)) {
+            CSVLoader loader = new CSVLoader();
+            SegmentDictionary dictionary = new SegmentDictionary();
+            List<Segment> segments = loader.loadSegments(segmentsPath.toString(), dictionary);
+
+            // Aggregate the raw speeds per segment and time slot in one streaming pass
+            SpeedCube speedCube = SpeedCube.aggregate(avgSpeedsPath, dictionary, slots, byQuantile);
+            if (speedCube.getSkippedObservations() > 0) {
+                System.out.println("Skipped " + speedCube.getSkippedObservations() + " speeds of segments missing from " + segmentsPath);
+            }
+
+            // Compute average speeds for each segment and time period
+            List<TimePeriodAvgSpeed> avgSpeeds = computeAverageSpeeds(speedCube, dictionary, slots);
+
+            // Create the CSV file with average speeds per time slot
+            createAvgSpeedsCSV(slots.equals(TimeSlots.hourly()) ? "avg_speeds_per_hour.csv" : "avg_speeds_per_slot.csv", avgSpeeds);
 
-        // Compute average speeds for each segment and time period
-        avgSpeeds = computeAverageSpeeds(rawAvgSpeeds);
+            snapshot = TrafficSnapshot.build(dictionary, slots, segments, speedCube);
+            snapshot.write(snapshotPath);
 
-        // Create the CSV file with average speeds per hour
-        createAvgSpeedsCSV("avg_speeds_per_hour.csv");
+            if (byQuantile) {
+                quantiles = speedCube.getQuantiles();
+                createSpeedPercentilesCSV("speed_percentiles_per_slot.csv", quantiles, slots);
+                quantiles.write(quantilesPath);
+            }
+        }
 
         // Create a JXMapViewer
         mapViewer = new JXMapViewer();
 
         // Setup tile factory
-        TileFactoryInfo info = new TileFactoryInfo(
-                1, 15, 17,
-                256, true, true,
-                "https://tile.openstreetmap.org",
-                "x", "y", "z") {
-            @Override
-            public String getTileUrl(int x, int y, int zoom) {
-                int tileZoom = getTotalMapZoom() - zoom;
-                return String.format("https://tile.openstreetmap.org/%d/%d/%d.png", tileZoom, x, y);
-            }
-        };
+        TileFactoryInfo info = createTileFactoryInfo();
 
         TileFactory tileFactory = new DefaultTileFactory(info);
         mapViewer.setTileFactory(tileFactory);
 
+        // Simplified geometry for every zoom level of the tile factory
+        pyramid = SimplificationPyramid.build(snapshot.getPolylines(), info);
+        spatialIndex = SegmentRTree.build(snapshot.getPolylines());
+        timeSlices = byQuantile ? new TimeSliceIndex(quantiles, colourQuantile) : new TimeSliceIndex(snapshot);
+
         // Enable interactions
         PanMouseInputListener panMouseInputListener = new PanMouseInputListener(mapViewer);
         mapViewer.addMouseListener(panMouseInputListener);
@@ -69,9 +113,21 @@ public class MapVisualizer {
         mapViewer.setZoom(10);
         mapViewer.setAddressLocation(center);
 
-        // Create painters for segments
-        painters = createPaintersForTimePeriod(LocalTime.MIN);
-        updateMapPainters();
+        // Slider range: the first to the last slot with any data
+        int minSlot = Math.max(0, snapshot.getFirstSlotWithData());
+        int maxSlot = Math.max(0, snapshot.getLastSlotWithData());
+
+        // Create painters for segments, only segments intersecting the viewport are painted.
+        // The overlay is pre-rendered into tiles per zoom and slot, also kept on disk when the
+        // overlayTileDirectory system property is set
+        overlayPainter = new TrafficOverlayPainter(spatialIndex, pyramid, timeSlices.getSlice(minSlot));
+        String tileDirectory = System.getProperty("overlayTileDirectory");
+        Path tilePath = tileDirectory == null ? null : Path.of(tileDirectory,
+                (args.length > 3 ? args[3] : "mean") + "-" + slots.getMinutesPerSlot() + (slots.isByDayOfWeek() ? "-week-" : "-day-")
+                        + snapshotPath.toFile().lastModified());
+        tileCache = new OverlayTileCache(overlayPainter, timeSlices, info, tilePath, OVERLAY_TILE_CACHE_BYTES, mapViewer::repaint);
+        tiledPainter = new TiledOverlayPainter(tileCache, overlayPainter, timeSlices, minSlot);
+        mapViewer.setOverlayPainter(tiledPainter);
 
         // Add zoom controls
         JPanel zoomPanel = new JPanel();
@@ -82,23 +138,67 @@ public class MapVisualizer {
         zoomPanel.add(zoomInButton);
         zoomPanel.add(zoomOutButton);
 
-        // Add time slider
-        LocalTime minTime = avgSpeeds.stream().map(TimePeriodAvgSpeed::getTime).map(MapVisualizer::parseTime).min(LocalTime::compareTo).orElse(LocalTime.MIN);
-        LocalTime maxTime = avgSpeeds.stream().map(TimePeriodAvgSpeed::getTime).map(MapVisualizer::parseTime).max(LocalTime::compareTo).orElse(LocalTime.MAX);
-        int maxHours = (int) minTime.until(maxTime, java.time.temporal.ChronoUnit.HOURS);
-
-        JSlider timeSlider = new JSlider(0, maxHours, 0);
-        timeSlider.setMajorTickSpacing(1); // One hour intervals
+        // Add time slider, one step per time slot
+        JSlider timeSlider = new JSlider(minSlot, maxSlot, minSlot);
+        timeSlider.setMajorTickSpacing(1);
         timeSlider.setPaintTicks(true);
         timeSlider.setPaintLabels(true);
-        timeSlider.setLabelTable(createSliderLabels(minTime, maxHours));
+        timeSlider.setLabelTable(createSliderLabels(snapshot.getSlots(), minSlot, maxSlot));
 
+        // Slot switches are built in the background, the map keeps showing the previous slot meanwhile
         timeSlider.addChangeListener(e -> {
-            int selectedHours = timeSlider.getValue();
-            LocalTime selectedTime = minTime.plusHours(selectedHours);
-            painters = createPaintersForTimePeriod(selectedTime);
-            updateMapPainters();
+            if (!player.isPlaying()) {
+                tiledPainter.showSlot(timeSlider.getValue(), mapViewer);
+            }
+        });
+
+        // Time-lapse playback over the slider's range, set up by the playbackFps (default 25),
+        // playbackSlotsPerSecond (default 2) and playbackInterpolate (default true) properties
+        JLabel playbackStatus = new JLabel(" ");
+        player = new TimeLapsePlayer(mapViewer, overlayPainter, timeSlices, minSlot, maxSlot,
+                Double.parseDouble(System.getProperty("playbackFps", "25")),
+                Double.parseDouble(System.getProperty("playbackSlotsPerSecond", "2")),
+                Boolean.parseBoolean(System.getProperty("playbackInterpolate", "true")),
+                (slot, fps, dropped) -> {
+                    timeSlider.setValue(slot);
+                    playbackStatus.setText(String.format("%.1f fps, %d dropped", fps, dropped));
+                });
+        JButton playButton = new JButton("Play");
+        playButton.addActionListener(e -> {
+            if (player.isPlaying()) {
+                int slot = player.stop();
+                tiledPainter.setSlot(slot);
+                timeSlider.setValue(slot);
+                mapViewer.setOverlayPainter(tiledPainter);
+                playButton.setText("Play");
+            } else {
+                mapViewer.setOverlayPainter(player);
+                player.start(timeSlider.getValue());
+                playButton.setText("Pause");
+            }
         });
+        zoomPanel.add(playButton);
+        zoomPanel.add(playbackStatus);
+
+        // Follow a live speed file, repainting only the segments whose shown speed changed. The
+        // feed folds observations into a cube of its own, seeded with the stored means and counts
+        // so live means extend the history; its sketch only holds the live percentiles not yet
+        // moved into the shown one.
+        if (liveSpeedsPath != null) {
+            SpeedCube liveCube = new SpeedCube(snapshot.getSegmentCount(), slots.getSlotCount(),
+                    byQuantile ? new SpeedQuantiles(snapshot.getSegmentCount(), slots.getSlotCount()) : null);
+            for (int segment = 0; segment < snapshot.getSegmentCount(); segment++) {
+                for (int slot = 0; slot < slots.getSlotCount(); slot++) {
+                    int count = snapshot.getCount(segment, slot);
+                    if (count > 0) {
+                        liveCube.addMean(segment, slot, snapshot.getSpeed(segment, slot), count);
+                    }
+                }
+            }
+            SpeedQuantiles shownQuantiles = quantiles;
+            LiveSpeedFeed.tail(liveSpeedsPath, snapshot.getDictionary(), slots, liveCube,
+                    cells -> applyLiveSpeeds(liveCube, shownQuantiles, cells));
+        }
 
         // Display the viewer in a JFrame
         JFrame frame = new JFrame("Map Viewer");
@@ -111,32 +211,35 @@ public class MapVisualizer {
         frame.setVisible(true);
     }
 
-    private static List<TimePeriodAvgSpeed> computeAverageSpeeds(List<AvgSpeed> rawAvgSpeeds) {
-        Map<String, Map<String, List<Double>>> groupedSpeeds = new HashMap<>();
-
-        for (AvgSpeed avgSpeed : rawAvgSpeeds) {
-            String segmentId = avgSpeed.getSegmentId();
-            String time = avgSpeed.getTime().substring(11, 13) + ":00:00"; // Extract only the hour part
-
-            groupedSpeeds.putIfAbsent(segmentId, new HashMap<>());
-            groupedSpeeds.get(segmentId).putIfAbsent(time, new ArrayList<>());
-            groupedSpeeds.get(segmentId).get(time).add(avgSpeed.getAvgSpeed());
-        }
+    // OpenStreetMap tiles; zoom levels are JXMapViewer's, counting down from the most detailed
+    static TileFactoryInfo createTileFactoryInfo() {
+        return new TileFactoryInfo(
+                1, 15, 17,
+                256, true, true,
+                "https://tile.openstreetmap.org",
+                "x", "y", "z") {
+            @Override
+            public String getTileUrl(int x, int y, int zoom) {
+                int tileZoom = getTotalMapZoom() - zoom;
+                return String.format("https://tile.openstreetmap.org/%d/%d/%d.png", tileZoom, x, y);
+            }
+        };
+    }
 
+    private static List<TimePeriodAvgSpeed> computeAverageSpeeds(SpeedCube speedCube, SegmentDictionary dictionary, TimeSlots slots) {
         List<TimePeriodAvgSpeed> result = new ArrayList<>();
-        for (Map.Entry<String, Map<String, List<Double>>> segmentEntry : groupedSpeeds.entrySet()) {
-            String segmentId = segmentEntry.getKey();
-            for (Map.Entry<String, List<Double>> timeEntry : segmentEntry.getValue().entrySet()) {
-                String time = timeEntry.getKey();
-                double avgSpeed = timeEntry.getValue().stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-                result.add(new TimePeriodAvgSpeed(segmentId, time, avgSpeed));
+        for (int segment = 0; segment < speedCube.getSegmentCount(); segment++) {
+            for (int slot = 0; slot < speedCube.getSlotCount(); slot++) {
+                if (speedCube.getCount(segment, slot) > 0) {
+                    result.add(new TimePeriodAvgSpeed(dictionary.idOf(segment), slots.label(slot), speedCube.getMean(segment, slot)));
+                }
             }
         }
 
         return result;
     }
 
-    private static void createAvgSpeedsCSV(String fileName) {
+    private static void createAvgSpeedsCSV(String fileName, List<TimePeriodAvgSpeed> avgSpeeds) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
             writer.write("SegmentId,Time,AvgSpeed\n");
             for (TimePeriodAvgSpeed avgSpeed : avgSpeeds) {
@@ -147,75 +250,128 @@ public class MapVisualizer {
         }
     }
 
-    private static List<Painter<JXMapViewer>> createPaintersForTimePeriod(LocalTime timePeriod) {
-        List<Painter<JXMapViewer>> painters = new ArrayList<>();
-        List<TimePeriodAvgSpeed> filteredSpeeds = avgSpeeds.stream()
-                .filter(avgSpeed -> parseTime(avgSpeed.getTime()).equals(timePeriod))
-                .collect(Collectors.toList());
-
-        for (Segment segment : segments) {
-            List<GeoPosition> positions = parseWKTToPositions(segment.getGeometry());
-            if (positions != null && !positions.isEmpty()) {
-                Color segmentColor = getSegmentColor(segment.getId(), filteredSpeeds);
-                if (segmentColor != null) { // Only add segments with avg speed
-                    RoutePainter routePainter = new RoutePainter(positions, segmentColor);
-                    painters.add(routePainter);
+    private static void createSpeedPercentilesCSV(String fileName, SpeedQuantiles quantiles, TimeSlots slots) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.write("SegmentId,Time,P15,P50,P85\n");
+            for (int segment = 0; segment < quantiles.getSegmentCount(); segment++) {
+                for (int slot = 0; slot < quantiles.getSlotCount(); slot++) {
+                    if (quantiles.getCount(segment, slot) > 0) {
+                        writer.write(String.format("%s,%s,%.2f,%.2f,%.2f\n", snapshot.getSegmentId(segment), slots.label(slot),
+                                quantiles.getQuantile(segment, slot, 0.15),
+                                quantiles.getQuantile(segment, slot, 0.50),
+                                quantiles.getQuantile(segment, slot, 0.85)));
+                    }
                 }
             }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-
-        return painters;
     }
 
-    private static void updateMapPainters() {
-        CompoundPainter<JXMapViewer> compoundPainter = new CompoundPainter<>(painters);
-        mapViewer.setOverlayPainter(compoundPainter);
-        mapViewer.repaint();
-    }
-
-    private static List<GeoPosition> parseWKTToPositions(String wkt) {
-        if (wkt == null || !wkt.startsWith("LINESTRING")) {
-            return null;
+    // NaN for "mean", otherwise the quantile of a "pNN" percentile
+    private static double parseColourQuantile(String metric) {
+        if (metric.equalsIgnoreCase("mean")) {
+            return Double.NaN;
         }
-        wkt = wkt.replace("LINESTRING (", "").replace(")", "");
-        String[] coords = wkt.split(", ");
-        List<GeoPosition> positions = new ArrayList<>();
-        for (String coord : coords) {
-            String[] latLon = coord.split(" ");
-            double lat = Double.parseDouble(latLon[1]);
-            double lon = Double.parseDouble(latLon[0]);
-            positions.add(new GeoPosition(lat, lon));
+        if (metric.length() > 1 && Character.toLowerCase(metric.charAt(0)) == 'p') {
+            double percentile = Double.parseDouble(metric.substring(1));
+            if (percentile >= 0 && percentile <= 100) {
+                return percentile / 100;
+            }
         }
-        return positions;
+        throw new IllegalArgumentException("Colour metric must be mean or p0..p100: " + metric);
     }
 
-    private static Color getSegmentColor(String segmentId, List<TimePeriodAvgSpeed> avgSpeeds) {
-        for (TimePeriodAvgSpeed avgSpeed : avgSpeeds) {
-            if (avgSpeed.getSegmentId().equals(segmentId)) {
-                double speed = avgSpeed.getAvgSpeed();
-                if (speed < 3) {
-                    return Color.RED;
-                } else if (speed < 6) {
-                    return Color.YELLOW;
-                } else {
-                    return Color.GREEN;
+    // Runs on the live feed thread, which owns the cube. The snapshot and the shown sketch are
+    // read by the EDT and the tile renderers through the time slices, so they are only changed
+    // under the slices' lock, which also swaps in the updated slices.
+    private static void applyLiveSpeeds(SpeedCube speedCube, SpeedQuantiles shownQuantiles, int[] cells) {
+        int slotCount = speedCube.getSlotCount();
+        timeSlices.update(cells, () -> {
+            for (int cell : cells) {
+                int segment = cell / slotCount;
+                int slot = cell % slotCount;
+                snapshot.setSpeed(segment, slot, speedCube.getMean(segment, slot), speedCube.getCount(segment, slot));
+                if (shownQuantiles != null) {
+                    shownQuantiles.moveCell(speedCube.getQuantiles(), segment, slot);
                 }
             }
+        });
+
+        int shownSlot = tiledPainter.getSlot();
+        List<Integer> visibleSegments = new ArrayList<>();
+        Map<Integer, Rectangle2D> boundsBySegment = new HashMap<>();
+        Map<Integer, List<Rectangle2D>> changedAreasBySlot = new HashMap<>();
+        for (int cell : cells) {
+            int segment = cell / slotCount;
+            int slot = cell % slotCount;
+            Rectangle2D bounds = boundsBySegment.computeIfAbsent(segment, MapVisualizer::segmentBounds);
+            if (bounds != null) {
+                changedAreasBySlot.computeIfAbsent(slot, s -> new ArrayList<>()).add(bounds);
+            }
+            if (slot == shownSlot) {
+                visibleSegments.add(segment);
+            }
+        }
+        // Only the tiles under the changed segments are rendered again
+        changedAreasBySlot.forEach(tileCache::invalidate);
+        if (!visibleSegments.isEmpty()) {
+            SwingUtilities.invokeLater(() -> repaintSegments(visibleSegments));
         }
-        return null;  // Return null if no avg speed is found
     }
 
-    private static LocalTime parseTime(String time) {
-        return LocalTime.parse(time, DateTimeFormatter.ofPattern("HH:mm:ss"));
+    // Bounds of the segment in normalized map units (see WebMercator), null without geometry
+    private static Rectangle2D segmentBounds(int segment) {
+        PolylineStore polylines = snapshot.getPolylines();
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int v = polylines.getStart(segment); v < polylines.getEnd(segment); v++) {
+            double x = WebMercator.x(polylines.getLongitude(v));
+            double y = WebMercator.y(polylines.getLatitude(v));
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        return minX > maxX ? null : new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
     }
 
-    private static Hashtable<Integer, JLabel> createSliderLabels(LocalTime startTime, int maxHours) {
+    // Repaints the union of the segments' screen bounds instead of the whole map
+    private static void repaintSegments(List<Integer> segments) {
+        Rectangle2D bounds = null;
+        for (int segment : segments) {
+            Rectangle2D segmentBounds = segmentBounds(segment);
+            if (segmentBounds == null) {
+                continue;
+            } else if (bounds == null) {
+                bounds = segmentBounds;
+            } else {
+                bounds.add(segmentBounds);
+            }
+        }
+        if (bounds == null) {
+            return;
+        }
+        Rectangle viewport = mapViewer.getViewportBounds();
+        double mapWidth = WebMercator.getMapWidthInPixels(mapViewer.getTileFactory().getInfo(), mapViewer.getZoom());
+        int margin = 2; // Stroke width
+        int x = (int) Math.floor(bounds.getMinX() * mapWidth) - viewport.x - margin;
+        int y = (int) Math.floor(bounds.getMinY() * mapWidth) - viewport.y - margin;
+        mapViewer.repaint(x, y,
+                (int) Math.ceil(bounds.getWidth() * mapWidth) + 2 * margin + 1,
+                (int) Math.ceil(bounds.getHeight() * mapWidth) + 2 * margin + 1);
+    }
+
+    private static Hashtable<Integer, JLabel> createSliderLabels(TimeSlots slots, int minSlot, int maxSlot) {
         Hashtable<Integer, JLabel> labelTable = new Hashtable<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
+        // Hourly labels, every 12 hours when the slider spans the whole week
+        int slotsPerHour = Math.max(1, 60 / slots.getMinutesPerSlot());
+        int labelEvery = slots.isByDayOfWeek() ? slotsPerHour * 12 : slotsPerHour;
 
-        for (int i = 0; i <= maxHours; i++) {  // Create labels at hourly intervals
-            LocalTime time = startTime.plusHours(i);
-            labelTable.put(i, new JLabel(time.format(formatter)));
+        for (int slot = minSlot; slot <= maxSlot; slot++) {
+            if (slot % labelEvery == 0) {
+                labelTable.put(slot, new JLabel(slots.shortLabel(slot)));
+            }
         }
         return labelTable;
     }
@@ -0,0 +1,245 @@
+package org.example;
+
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Headless rendering of traffic overlay frames to PNG, one per time slot, for a bounding box
+// at a zoom level. The background is composed once from a local z/x/y.png tile directory,
+// falling back to a blank map for missing tiles, so no display or network is needed; the
+// frames are then rendered in parallel on top of it.
+public class OverlayFrameRenderer {
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final Color BLANK_BACKGROUND = new Color(0xF2EFE9);
+    private static final Font LABEL_FONT = new Font(Font.SANS_SERIF, Font.BOLD, 14);
+
+    private final TrafficSnapshot snapshot;
+    private final TileFactoryInfo info;
+    private final TrafficOverlayPainter overlay;
+    private final TimeSliceIndex timeSlices;
+
+    public OverlayFrameRenderer(TrafficSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.info = MapVisualizer.createTileFactoryInfo();
+        this.timeSlices = new TimeSliceIndex(snapshot);
+        this.overlay = new TrafficOverlayPainter(SegmentRTree.build(snapshot.getPolylines()),
+                SimplificationPyramid.build(snapshot.getPolylines(), info), null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Before anything touches AWT
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 4) {
+            System.out.println("Usage: OverlayFrameRenderer minLon,minLat,maxLon,maxLat zoom slots outputDir"
+                    + " [tileDir|-] [slotMinutes] [day|week]");
+            System.out.println("  zoom is the tile zoom level (z of z/x/y.png), slots e.g. all, 0-95 or 8,12,17");
+            return;
+        }
+        String[] bbox = args[0].split(",");
+        if (bbox.length != 4) {
+            throw new IllegalArgumentException("Bounding box must be minLon,minLat,maxLon,maxLat: " + args[0]);
+        }
+        int tileZoom = Integer.parseInt(args[1]);
+        Path outputDirectory = Path.of(args[3]);
+        Path tileDirectory = args.length > 4 && !args[4].equals("-") ? Path.of(args[4]) : null;
+        TimeSlots slots = args.length > 5
+                ? new TimeSlots(Integer.parseInt(args[5]), args.length > 6 && args[6].equalsIgnoreCase("week"))
+                : null;
+
+        OverlayFrameRenderer renderer = new OverlayFrameRenderer(loadSnapshot(slots));
+        long start = System.nanoTime();
+        int frames = renderer.render(
+                Double.parseDouble(bbox[0]), Double.parseDouble(bbox[1]),
+                Double.parseDouble(bbox[2]), Double.parseDouble(bbox[3]),
+                tileZoom, parseSlots(args[2], renderer.snapshot.getSlots().getSlotCount()),
+                tileDirectory, outputDirectory);
+        System.out.printf("Rendered %d frames to %s in %.1f s%n", frames, outputDirectory, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Renders one PNG per slot into the directory, named after the slot; returns the frame count
+    public int render(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+                      int tileZoom, int[] slotsToRender, Path tileDirectory, Path outputDirectory) throws IOException {
+        int zoom = info.getTotalMapZoom() - tileZoom;
+        if (zoom < info.getMinimumZoomLevel() || zoom > info.getMaximumZoomLevel()) {
+            throw new IllegalArgumentException("Zoom must be between " + (info.getTotalMapZoom() - info.getMaximumZoomLevel())
+                    + " and " + (info.getTotalMapZoom() - info.getMinimumZoomLevel()) + ": " + tileZoom);
+        }
+        double mapWidth = WebMercator.getMapWidthInPixels(info, zoom);
+        int left = (int) Math.floor(WebMercator.x(Math.min(minLongitude, maxLongitude)) * mapWidth);
+        int right = (int) Math.ceil(WebMercator.x(Math.max(minLongitude, maxLongitude)) * mapWidth);
+        int top = (int) Math.floor(WebMercator.y(Math.max(minLatitude, maxLatitude)) * mapWidth);
+        int bottom = (int) Math.ceil(WebMercator.y(Math.min(minLatitude, maxLatitude)) * mapWidth);
+        Rectangle viewport = new Rectangle(left, top, Math.max(1, right - left), Math.max(1, bottom - top));
+        if (viewport.width > MAX_FRAME_SIZE || viewport.height > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame of " + viewport.width + "x" + viewport.height
+                    + " pixels is too large, use a lower zoom or a smaller bounding box");
+        }
+
+        BufferedImage background = composeBackground(viewport, zoom, tileZoom, tileDirectory);
+        Files.createDirectories(outputDirectory);
+        ExecutorService executor = Executors.newFixedThreadPool(renderThreads(viewport));
+        try {
+            List<Future<?>> frames = new ArrayList<>(slotsToRender.length);
+            for (int slot : slotsToRender) {
+                frames.add(executor.submit(() -> renderFrame(background, viewport, zoom, slot,
+                        outputDirectory.resolve(String.format("slot_%04d.png", slot)))));
+            }
+            for (Future<?> frame : frames) {
+                frame.get();
+            }
+            return frames.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering frames", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // One per core, but no more frames in flight than fit in half the free heap, counting each
+    // frame twice for the PNG encoder's buffers
+    private static int renderThreads(Rectangle viewport) {
+        long frameBytes = 2 * 4L * viewport.width * viewport.height;
+        Runtime runtime = Runtime.getRuntime();
+        long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return (int) Math.max(1, Math.min(runtime.availableProcessors(), freeBytes / 2 / frameBytes));
+    }
+
+    private void renderFrame(BufferedImage background, Rectangle viewport, int zoom, int slot, Path file) {
+        BufferedImage frame = new BufferedImage(viewport.width, viewport.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = frame.createGraphics();
+        g.drawImage(background, 0, 0, null);
+        overlay.paint(g, info, zoom, viewport, timeSlices.getSlice(slot));
+
+        // Slot label in the top left corner
+        String label = snapshot.getSlots().label(slot);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(LABEL_FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        g.setColor(new Color(255, 255, 255, 200));
+        g.fillRect(4, 4, metrics.stringWidth(label) + 8, metrics.getHeight() + 4);
+        g.setColor(Color.BLACK);
+        g.drawString(label, 8, 6 + metrics.getAscent());
+        g.dispose();
+
+        try {
+            ImageIO.write(frame, "png", file.toFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The map tiles under the viewport, blank where a tile is missing or unreadable
+    private BufferedImage composeBackground(Rectangle viewport, int zoom, int tileZoom, Path tileDirectory) {
+        BufferedImage background = new BufferedImage(viewport.width, viewport.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = background.createGraphics();
+        g.setColor(BLANK_BACKGROUND);
+        g.fillRect(0, 0, viewport.width, viewport.height);
+        if (tileDirectory != null) {
+            int tileSize = info.getTileSize(zoom);
+            int tilesAcross = info.getMapWidthInTilesAtZoom(zoom);
+            int missing = 0;
+            for (int y = Math.max(0, viewport.y / tileSize); y <= Math.min(tilesAcross - 1, (viewport.y + viewport.height - 1) / tileSize); y++) {
+                for (int x = Math.max(0, viewport.x / tileSize); x <= Math.min(tilesAcross - 1, (viewport.x + viewport.width - 1) / tileSize); x++) {
+                    Path file = tileDirectory.resolve(tileZoom + "/" + x + "/" + y + ".png");
+                    BufferedImage tile = null;
+                    try {
+                        tile = Files.exists(file) ? ImageIO.read(file.toFile()) : null;
+                    } catch (IOException e) {
+                        System.out.println("Unreadable tile " + file + ": " + e.getMessage());
+                    }
+                    if (tile == null) {
+                        missing++;
+                    } else {
+                        g.drawImage(tile, x * tileSize - viewport.x, y * tileSize - viewport.y, tileSize, tileSize, null);
+                    }
+                }
+            }
+            if (missing > 0) {
+                System.out.println(missing + " background tiles missing from " + tileDirectory + ", left blank");
+            }
+        }
+        g.dispose();
+        return background;
+    }
+
+    // "all", a range such as "0-95" or a comma separated list
+    static int[] parseSlots(String spec, int slotCount) {
+        if (spec.equalsIgnoreCase("all")) {
+            int[] all = new int[slotCount];
+            for (int slot = 0; slot < slotCount; slot++) {
+                all[slot] = slot;
+            }
+            return all;
+        }
+        List<Integer> slots = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            int dash = part.indexOf('-');
+            int first = Integer.parseInt(part.substring(0, dash < 0 ? part.length() : dash).trim());
+            int last = dash < 0 ? first : Integer.parseInt(part.substring(dash + 1).trim());
+            for (int slot = first; slot <= last; slot++) {
+                if (slot < 0 || slot >= slotCount) {
+                    throw new IllegalArgumentException("Slot " + slot + " out of range 0-" + (slotCount - 1));
+                }
+                slots.add(slot);
+            }
+        }
+        return slots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // The traffic snapshot. MapVisualizer's traffic.snapshot is used when it is up to date and has
+    // the requested time slots (null for whatever it has); otherwise one named after the slots,
+    // e.g. traffic-15m-day.snapshot (hourly when none are requested), rebuilt from the CSV inputs
+    // when it is stale or unreadable. traffic.snapshot itself is never overwritten here.
+    private static TrafficSnapshot loadSnapshot(TimeSlots slots) throws Exception {
+        Path segmentsPath = Path.of("segments.csv");
+        Path avgSpeedsPath = Path.of("avg_speeds.csv");
+        TrafficSnapshot shared = readIfUpToDate(Path.of("traffic.snapshot"), segmentsPath, avgSpeedsPath);
+        if (shared != null && (slots == null || shared.getSlots().equals(slots))) {
+            return shared;
+        }
+        TimeSlots snapshotSlots = slots != null ? slots : TimeSlots.hourly();
+        Path snapshotPath = Path.of("traffic-" + snapshotSlots.getMinutesPerSlot() + "m-"
+                + (snapshotSlots.isByDayOfWeek() ? "week" : "day") + ".snapshot");
+        TrafficSnapshot snapshot = readIfUpToDate(snapshotPath, segmentsPath, avgSpeedsPath);
+        if (snapshot != null && snapshot.getSlots().equals(snapshotSlots)) {
+            return snapshot;
+        }
+        SegmentDictionary dictionary = new SegmentDictionary();
+        List<Segment> segments = new CSVLoader().loadSegments(segmentsPath.toString(), dictionary);
+        SpeedCube speedCube = SpeedCube.aggregate(avgSpeedsPath, dictionary, snapshotSlots);
+        snapshot = TrafficSnapshot.build(dictionary, snapshotSlots, segments, speedCube);
+        snapshot.write(snapshotPath);
+        return snapshot;
+    }
+
+    // null when the snapshot is missing, older than the inputs or unreadable
+    private static TrafficSnapshot readIfUpToDate(Path snapshotPath, Path... sources) throws IOException {
+        if (!TrafficSnapshot.isUpToDate(snapshotPath, sources)) {
+            return null;
+        }
+        try {
+            return TrafficSnapshot.read(snapshotPath);
+        } catch (IOException e) { // E.g. written by an older version
+            System.out.println("Ignoring " + snapshotPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
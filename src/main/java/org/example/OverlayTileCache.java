@@ -0,0 +1,275 @@
+package org.example;
+
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntPredicate;
+
+// Pre-rendered traffic overlay tiles aligned with the map's tiling, keyed by (zoom, x, y,
+// time slot). Missing tiles are rendered by TrafficOverlayPainter on background threads and
+// kept in a size-bounded LRU cache; with a disk directory they are also stored as PNGs and
+// read back before rendering. Tiles without any coloured segment are not stored.
+public class OverlayTileCache {
+    private static final int MARGIN_PIXELS = 2; // Stroke width, lines reach that far into neighbouring tiles
+    private static final long ENTRY_BYTES = 128; // Key, map entry and image headers, so EMPTY tiles count too
+    // Key fields from the high bits: zoom, slot, tile x, tile y
+    private static final int ZOOM_BITS = 6;
+    private static final int SLOT_BITS = 18; // 1-minute slots by day of week are 10080
+    private static final int TILE_BITS = 20;
+    public static final BufferedImage EMPTY = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private final TrafficOverlayPainter overlay;
+    private final TimeSliceIndex timeSlices;
+    private final TileFactoryInfo info;
+    private final Path directory; // null for memory only
+    private final long maxBytes;
+    private final Runnable onTileReady;
+    private final ExecutorService renderer;
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Long, CompletableFuture<BufferedImage>> rendering = new HashMap<>();
+    private final TrafficOverlayPainter.PathCache paths = new TrafficOverlayPainter.PathCache();
+    private final int[] generations; // Per slot, bumped by invalidate
+    private long bytes;
+
+    // onTileReady is called from a render thread whenever a requested tile becomes available
+    public OverlayTileCache(TrafficOverlayPainter overlay, TimeSliceIndex timeSlices, TileFactoryInfo info,
+                            Path directory, long maxBytes, Runnable onTileReady) {
+        this.overlay = overlay;
+        this.timeSlices = timeSlices;
+        this.info = info;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.onTileReady = onTileReady;
+        if (timeSlices.getSlotCount() > 1 << SLOT_BITS || info.getMaximumZoomLevel() >= 1 << ZOOM_BITS
+                || info.getMapWidthInTilesAtZoom(info.getMinimumZoomLevel()) > 1 << TILE_BITS) {
+            throw new IllegalArgumentException("Too many slots (" + timeSlices.getSlotCount() + "), zoom levels or tiles for the tile keys");
+        }
+        this.generations = new int[timeSlices.getSlotCount()];
+        this.renderer = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), runnable -> {
+            Thread thread = new Thread(runnable, "overlay-tile-renderer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    static long key(int zoom, int x, int y, int slot) {
+        return (long) zoom << (SLOT_BITS + 2 * TILE_BITS) | (long) slot << (2 * TILE_BITS) | (long) x << TILE_BITS | y;
+    }
+
+    private static int zoomOf(long key) {
+        return (int) (key >>> (SLOT_BITS + 2 * TILE_BITS));
+    }
+
+    private static int slotOf(long key) {
+        return (int) (key >>> (2 * TILE_BITS) & ((1 << SLOT_BITS) - 1));
+    }
+
+    private static int xOf(long key) {
+        return (int) (key >>> TILE_BITS & ((1 << TILE_BITS) - 1));
+    }
+
+    private static int yOf(long key) {
+        return (int) (key & ((1 << TILE_BITS) - 1));
+    }
+
+    // The tile if it is cached (EMPTY when nothing is drawn on it), otherwise null after
+    // scheduling it to be rendered
+    public BufferedImage getTile(int zoom, int x, int y, int slot) {
+        return request(zoom, x, y, slot).getNow(null);
+    }
+
+    // Completes with the tile once it is cached, rendering it in the background if needed
+    public CompletableFuture<BufferedImage> request(int zoom, int x, int y, int slot) {
+        long key = key(zoom, x, y, slot);
+        CompletableFuture<BufferedImage> future;
+        synchronized (this) {
+            BufferedImage tile = tiles.get(key);
+            if (tile != null) {
+                return CompletableFuture.completedFuture(tile);
+            }
+            future = rendering.get(key);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            rendering.put(key, future);
+        }
+        CompletableFuture<BufferedImage> rendered = future;
+        renderer.execute(() -> {
+            if (rendered.isDone()) { // Cancelled while queued
+                return;
+            }
+            try {
+                int generation;
+                synchronized (this) {
+                    generation = generations[slot];
+                }
+                BufferedImage tile = loadOrRender(zoom, x, y, slot, generation);
+                synchronized (this) {
+                    if (rendering.remove(key, rendered)) { // Not invalidated meanwhile
+                        put(key, tile);
+                    }
+                }
+                rendered.complete(tile);
+                onTileReady.run();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    rendering.remove(key, rendered);
+                }
+                rendered.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    // Requests every tile intersecting the viewport (world pixels at the zoom)
+    public CompletableFuture<Void> request(int zoom, Rectangle viewport, int slot) {
+        int tileSize = info.getTileSize(zoom);
+        int tilesAcross = info.getMapWidthInTilesAtZoom(zoom);
+        int minTileX = Math.max(0, Math.floorDiv(viewport.x, tileSize));
+        int minTileY = Math.max(0, Math.floorDiv(viewport.y, tileSize));
+        int maxTileX = Math.min(tilesAcross - 1, Math.floorDiv(viewport.x + viewport.width - 1, tileSize));
+        int maxTileY = Math.min(tilesAcross - 1, Math.floorDiv(viewport.y + viewport.height - 1, tileSize));
+        List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+        for (int y = minTileY; y <= maxTileY; y++) {
+            for (int x = minTileX; x <= maxTileX; x++) {
+                futures.add(request(zoom, x, y, slot));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new));
+    }
+
+    // Cancels the queued renders of other zooms and of the slots not kept, e.g. those the user
+    // has moved past
+    public void cancelRenders(int zoom, IntPredicate keepSlot) {
+        List<CompletableFuture<BufferedImage>> cancelled = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Long, CompletableFuture<BufferedImage>>> entries = rendering.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Long, CompletableFuture<BufferedImage>> entry = entries.next();
+                if (zoomOf(entry.getKey()) != zoom || !keepSlot.test(slotOf(entry.getKey()))) {
+                    cancelled.add(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+        cancelled.forEach(future -> future.cancel(false));
+    }
+
+    // Drops the slot's tiles, at every zoom, overlapping any of the areas (normalized map units,
+    // see WebMercator), e.g. the bounds of the segments whose live speeds changed. Other tiles
+    // of the slot stay cached.
+    public void invalidate(int slot, List<Rectangle2D> areas) {
+        synchronized (this) {
+            generations[slot]++;
+        }
+        for (int zoom = info.getMinimumZoomLevel(); zoom <= info.getMaximumZoomLevel(); zoom++) {
+            int tileSize = info.getTileSize(zoom);
+            int lastTile = info.getMapWidthInTilesAtZoom(zoom) - 1;
+            double mapWidth = WebMercator.getMapWidthInPixels(info, zoom);
+            Set<Long> keys = new HashSet<>();
+            for (Rectangle2D area : areas) {
+                int minX = Math.max(0, (int) Math.floor((area.getMinX() * mapWidth - MARGIN_PIXELS) / tileSize));
+                int minY = Math.max(0, (int) Math.floor((area.getMinY() * mapWidth - MARGIN_PIXELS) / tileSize));
+                int maxX = Math.min(lastTile, (int) Math.floor((area.getMaxX() * mapWidth + MARGIN_PIXELS) / tileSize));
+                int maxY = Math.min(lastTile, (int) Math.floor((area.getMaxY() * mapWidth + MARGIN_PIXELS) / tileSize));
+                for (int y = minY; y <= maxY; y++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        keys.add(key(zoom, x, y, slot));
+                    }
+                }
+            }
+            synchronized (this) {
+                for (long key : keys) {
+                    BufferedImage tile = tiles.remove(key);
+                    if (tile != null) {
+                        bytes -= sizeOf(tile);
+                    }
+                    rendering.remove(key); // Not stored when it completes
+                }
+            }
+            Path slotDirectory = directory == null ? null : directory.resolve(zoom + "/" + slot);
+            if (slotDirectory != null && Files.isDirectory(slotDirectory)) {
+                try {
+                    for (long key : keys) {
+                        Files.deleteIfExists(slotDirectory.resolve(xOf(key) + "_" + yOf(key) + ".png"));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Renders still running when their slot is invalidated do not store their PNG
+    private BufferedImage loadOrRender(int zoom, int x, int y, int slot, int generation) {
+        int tileSize = info.getTileSize(zoom);
+        Rectangle bounds = new Rectangle(x * tileSize, y * tileSize, tileSize, tileSize);
+        byte[] classes = timeSlices.getSlice(slot);
+        if (!overlay.intersects(info, zoom, bounds, classes)) {
+            return EMPTY;
+        }
+        Path file = directory == null ? null : directory.resolve(zoom + "/" + slot + "/" + x + "_" + y + ".png");
+        try {
+            if (file != null && Files.exists(file)) {
+                BufferedImage tile = ImageIO.read(file.toFile());
+                if (tile != null) {
+                    return tile;
+                }
+            }
+            BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = tile.createGraphics();
+            overlay.paint(g, info, zoom, bounds, classes, paths);
+            g.dispose();
+            if (file != null) {
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                ImageIO.write(tile, "png", tmp.toFile());
+                synchronized (this) {
+                    if (generations[slot] != generation) {
+                        Files.delete(tmp);
+                        return tile;
+                    }
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            return tile;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void put(long key, BufferedImage tile) {
+        BufferedImage previous = tiles.put(key, tile);
+        bytes += sizeOf(tile) - (previous == null ? 0 : sizeOf(previous));
+        Iterator<BufferedImage> eldest = tiles.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(BufferedImage tile) {
+        return ENTRY_BYTES + (tile == EMPTY ? 0 : 4L * tile.getWidth() * tile.getHeight());
+    }
+}
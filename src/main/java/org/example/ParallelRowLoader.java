@@ -0,0 +1,157 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Loads a delimited file on a fork-join pool. The file is cut into byte ranges that
+// always end on a newline, every range is parsed by its own DelimitedRowReader and the
+// partial results are merged in file order, so loaded lists are identical to a
+// sequential read whatever the number of threads.
+public class ParallelRowLoader {
+    private static final long MIN_RANGE_SIZE = 4L << 20;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    public static <T> List<T> load(Path path, char separator, boolean skipHeader,
+                                   Function<String[], T> mapper, int... columns) throws IOException {
+        return load(path, separator, skipHeader, ForkJoinPool.commonPool(), mapper, columns);
+    }
+
+    public static <T> List<T> load(Path path, char separator, boolean skipHeader, ForkJoinPool pool,
+                                   Function<String[], T> mapper, int... columns) throws IOException {
+        return aggregate(path, separator, skipHeader, pool, pool.getParallelism() * 4, ArrayList::new,
+                (list, line) -> list.add(mapper.apply(line)),
+                (left, right) -> {
+                    left.addAll(right);
+                    return left;
+                }, columns);
+    }
+
+    // Folds the rows of every range into its own partial result and merges the partials
+    // left to right in file order. Use few ranges when partials are large.
+    public static <A> A aggregate(Path path, char separator, boolean skipHeader, ForkJoinPool pool, int ranges,
+                                  Supplier<A> partial, BiConsumer<A, String[]> accumulator, BinaryOperator<A> merger,
+                                  int... columns) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = skipHeader ? nextLineStart(channel, 0, size) : 0;
+            int parts = (int) Math.max(1, Math.min(ranges, (size - start) / MIN_RANGE_SIZE));
+            long[] boundaries = splitAtNewlines(channel, start, size, parts);
+
+            try {
+                return pool.invoke(new RangeTask<>(new RangeJob<>(channel, boundaries, separator, columns, partial, accumulator, merger),
+                        0, boundaries.length - 1));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    // Returns the offsets [start, b1, b2, ..., end]; every inner boundary is the first
+    // byte after a newline so no line straddles two ranges.
+    static long[] splitAtNewlines(FileChannel channel, long start, long end, int parts) throws IOException {
+        long[] boundaries = new long[parts + 1];
+        int count = 0;
+        boundaries[count++] = start;
+        long rangeSize = (end - start) / parts;
+        for (int i = 1; i < parts; i++) {
+            long boundary = nextLineStart(channel, Math.max(start + i * rangeSize, boundaries[count - 1]), end);
+            if (boundary > boundaries[count - 1] && boundary < end) {
+                boundaries[count++] = boundary;
+            }
+        }
+        boundaries[count++] = end;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = from;
+        while (position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    private static class RangeJob<A> {
+        final FileChannel channel;
+        final long[] boundaries;
+        final char separator;
+        final int[] columns;
+        final Supplier<A> partial;
+        final BiConsumer<A, String[]> accumulator;
+        final BinaryOperator<A> merger;
+
+        RangeJob(FileChannel channel, long[] boundaries, char separator, int[] columns,
+                 Supplier<A> partial, BiConsumer<A, String[]> accumulator, BinaryOperator<A> merger) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.separator = separator;
+            this.columns = columns;
+            this.partial = partial;
+            this.accumulator = accumulator;
+            this.merger = merger;
+        }
+    }
+
+    private static class RangeTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeJob<A> job;
+        private final int from;
+        private final int to;
+
+        RangeTask(RangeJob<A> job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from == 1) {
+                return parseRange();
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask<A> left = new RangeTask<>(job, from, middle);
+            RangeTask<A> right = new RangeTask<>(job, middle, to);
+            left.fork();
+            A rightResult = right.compute();
+            return job.merger.apply(left.join(), rightResult);
+        }
+
+        private A parseRange() {
+            A result = job.partial.get();
+            try (DelimitedRowReader reader = new DelimitedRowReader(job.channel, job.boundaries[from], job.boundaries[to], job.separator, job.columns)) {
+                while (reader.hasNext()) {
+                    job.accumulator.accept(result, reader.next());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+    }
+}
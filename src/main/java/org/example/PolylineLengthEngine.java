@@ -0,0 +1,62 @@
+package org.example;
+
+import java.util.stream.IntStream;
+
+// Computes the length in meters of every polyline of a PolylineStore in one parallel pass.
+// Latitudes are converted to radians and their cosines taken once per vertex, so each edge
+// only costs the trig of the distance formula itself.
+public class PolylineLengthEngine {
+    private static final double R = 6371000; // Radius of the Earth in meters
+
+    public enum DistanceMode {
+        // Great-circle distance, identical to SegmentLengthCalculator.haversineDistance
+        HAVERSINE,
+        // Flat-earth approximation per edge: sqrt(dlat^2 + (dlon * cos(lat))^2).
+        // Relative error against HAVERSINE stays below 1e-6 for edges up to 10 km
+        // at latitudes up to 70 degrees, i.e. under a millimetre per kilometre.
+        EQUIRECTANGULAR
+    }
+
+    public static double[] computeLengths(PolylineStore polylines, DistanceMode mode) {
+        int vertexCount = polylines.getTotalVertexCount();
+        double[] latitudes = new double[vertexCount];
+        double[] longitudes = new double[vertexCount];
+        double[] cosLatitudes = new double[vertexCount];
+        IntStream.range(0, vertexCount).parallel().forEach(v -> {
+            latitudes[v] = Math.toRadians(polylines.getLatitude(v));
+            longitudes[v] = Math.toRadians(polylines.getLongitude(v));
+            cosLatitudes[v] = Math.cos(latitudes[v]);
+        });
+
+        double[] lengths = new double[polylines.size()];
+        IntStream.range(0, polylines.size()).parallel().forEach(polyline -> {
+            int start = polylines.getStart(polyline);
+            int end = polylines.getEnd(polyline);
+            double length = 0.0;
+            if (mode == DistanceMode.HAVERSINE) {
+                for (int v = start + 1; v < end; v++) {
+                    length += haversine(latitudes, longitudes, cosLatitudes, v - 1, v);
+                }
+            } else {
+                for (int v = start + 1; v < end; v++) {
+                    length += equirectangular(latitudes, longitudes, cosLatitudes, v - 1, v);
+                }
+            }
+            lengths[polyline] = length;
+        });
+        return lengths;
+    }
+
+    private static double haversine(double[] latitudes, double[] longitudes, double[] cosLatitudes, int from, int to) {
+        double sinHalfDlat = Math.sin((latitudes[to] - latitudes[from]) / 2);
+        double sinHalfDlon = Math.sin((longitudes[to] - longitudes[from]) / 2);
+        double a = sinHalfDlat * sinHalfDlat + cosLatitudes[from] * cosLatitudes[to] * sinHalfDlon * sinHalfDlon;
+        return 2 * R * Math.asin(Math.sqrt(Math.min(1.0, a)));
+    }
+
+    private static double equirectangular(double[] latitudes, double[] longitudes, double[] cosLatitudes, int from, int to) {
+        double x = (longitudes[to] - longitudes[from]) * (cosLatitudes[from] + cosLatitudes[to]) / 2;
+        double y = latitudes[to] - latitudes[from];
+        return R * Math.sqrt(x * x + y * y);
+    }
+}
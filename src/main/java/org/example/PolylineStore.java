@@ -0,0 +1,142 @@
+package org.example;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// Flat storage for many polylines: one coordinate array of (lat, lon) pairs and an offsets
+// array where polyline i owns vertices offsets[i] until offsets[i + 1]. No per-vertex objects.
+// Both are buffers, so a store read from a TrafficSnapshot stays in the mapped file.
+public class PolylineStore {
+    private final IntBuffer offsets;
+    private final DoubleBuffer coordinates;
+
+    public PolylineStore(int[] offsets, double[] coordinates) {
+        this(IntBuffer.wrap(offsets), DoubleBuffer.wrap(coordinates));
+    }
+
+    // Offsets must start at 0, never decrease and end at the coordinates' vertex count
+    PolylineStore(IntBuffer offsets, DoubleBuffer coordinates) {
+        this.offsets = offsets;
+        this.coordinates = coordinates;
+    }
+
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    public int getTotalVertexCount() {
+        return offsets.get(offsets.limit() - 1);
+    }
+
+    public int getVertexCount(int polyline) {
+        return offsets.get(polyline + 1) - offsets.get(polyline);
+    }
+
+    // First vertex of the polyline, as a global vertex index
+    public int getStart(int polyline) {
+        return offsets.get(polyline);
+    }
+
+    // One past the last vertex of the polyline, as a global vertex index
+    public int getEnd(int polyline) {
+        return offsets.get(polyline + 1);
+    }
+
+    public double getLatitude(int vertex) {
+        return coordinates.get(2 * vertex);
+    }
+
+    public double getLongitude(int vertex) {
+        return coordinates.get(2 * vertex + 1);
+    }
+
+    // (lat, lon) pairs of one polyline
+    public double[] copyCoordinates(int polyline) {
+        double[] copy = new double[2 * getVertexCount(polyline)];
+        coordinates.duplicate().position(2 * getStart(polyline)).get(copy);
+        return copy;
+    }
+
+    // Views from index 0, for writing the store out
+    IntBuffer getOffsets() {
+        return offsets.duplicate().rewind();
+    }
+
+    DoubleBuffer getCoordinates() {
+        return coordinates.duplicate().rewind();
+    }
+
+    public static class Builder {
+        private int[] offsets;
+        private double[] coordinates;
+        private int size;
+        private int vertexCount;
+
+        public Builder() {
+            this(16, 64);
+        }
+
+        public Builder(int expectedPolylines, int expectedVertices) {
+            offsets = new int[Math.max(expectedPolylines, 1) + 1];
+            coordinates = new double[Math.max(expectedVertices, 1) * 2];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Appends the (lat, lon) pairs as a new polyline and returns its index
+        public int add(double[] latLon) {
+            return add(latLon, 0, latLon.length / 2);
+        }
+
+        public int add(double[] latLon, int fromVertex, int toVertex) {
+            int count = toVertex - fromVertex;
+            ensureVertexCapacity(vertexCount + count);
+            System.arraycopy(latLon, 2 * fromVertex, coordinates, 2 * vertexCount, 2 * count);
+            vertexCount += count;
+            return close();
+        }
+
+        // Parses a WKT LINESTRING straight into the store; anything else becomes an empty polyline
+        public int addWkt(CharSequence wkt) {
+            WktTokenizer.appendLineString(wkt, this);
+            return close();
+        }
+
+        public int addEmpty() {
+            return close();
+        }
+
+        void addVertex(double latitude, double longitude) {
+            ensureVertexCapacity(vertexCount + 1);
+            coordinates[2 * vertexCount] = latitude;
+            coordinates[2 * vertexCount + 1] = longitude;
+            vertexCount++;
+        }
+
+        private int close() {
+            if (size + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[++size] = vertexCount;
+            return size - 1;
+        }
+
+        private void ensureVertexCapacity(int vertices) {
+            if (vertices * 2 > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, Math.max(vertices * 2, coordinates.length * 2));
+            }
+        }
+
+        // The (lat, lon) pairs added so far, closed into polylines or not
+        double[] getCoordinates() {
+            return Arrays.copyOf(coordinates, vertexCount * 2);
+        }
+
+        public PolylineStore build() {
+            return new PolylineStore(Arrays.copyOf(offsets, size + 1), Arrays.copyOf(coordinates, vertexCount * 2));
+        }
+    }
+}
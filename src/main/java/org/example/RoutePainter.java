@@ -1,52 +0,0 @@
-package org.example;
-
-import org.jxmapviewer.painter.Painter;
-import org.jxmapviewer.viewer.GeoPosition;
-import org.jxmapviewer.JXMapViewer;
-
-import java.awt.*;
-import java.awt.geom.Path2D;
-import java.awt.geom.Point2D;
-import java.util.List;
-
-public class RoutePainter implements Painter<JXMapViewer> {
-    private final List<GeoPosition> track;
-    private final Color color;
-
-    public RoutePainter(List<GeoPosition> track, Color color) {
-        this.track = track;
-        this.color = color;
-    }
-
-    @Override
-    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
-        g = (Graphics2D) g.create();
-
-        // Convert from viewport to world bitmap
-        Rectangle rect = map.getViewportBounds();
-        g.translate(-rect.x, -rect.y);
-
-        // Set anti-aliasing
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        // Set the stroke and color
-        g.setColor(color);
-        g.setStroke(new BasicStroke(2));
-
-        // Draw the polyline
-        Path2D path = new Path2D.Double();
-        boolean first = true;
-
-        for (GeoPosition gp : track) {
-            Point2D pt = map.getTileFactory().geoToPixel(gp, map.getZoom());
-            if (first) {
-                path.moveTo(pt.getX(), pt.getY());
-                first = false;
-            } else {
-                path.lineTo(pt.getX(), pt.getY());
-            }
-        }
-        g.draw(path);
-        g.dispose();
-    }
-}
@@ -0,0 +1,39 @@
+package org.example;
+
+class Segment {
+    private String id;
+    private String geometry; // The WKT representation of the geometry
+    private int segmentIndex = -1; // Index in the SegmentDictionary, -1 until encoded
+
+    // getters and setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getGeometry() {
+        return geometry;
+    }
+
+    public void setGeometry(String geometry) {
+        this.geometry = geometry;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public void setSegmentIndex(int segmentIndex) {
+        this.segmentIndex = segmentIndex;
+    }
+
+    public String toString() {
+        return "Segment{" +
+                "id='" + id + '\'' +
+                ", geometry='" + geometry + '\'' +
+                '}';
+    }
+}
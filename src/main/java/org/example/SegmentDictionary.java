@@ -0,0 +1,55 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Maps segment id strings to dense int indexes (0..size-1) in first-seen order, so
+// aggregation and joins can work on arrays indexed by segment instead of String-keyed maps.
+// Every record encoded against the dictionary shares the dictionary's id instance.
+public class SegmentDictionary {
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private final List<String> ids = new ArrayList<>();
+
+    public static SegmentDictionary of(String[] ids) {
+        SegmentDictionary dictionary = new SegmentDictionary();
+        for (String id : ids) {
+            dictionary.intern(id);
+        }
+        return dictionary;
+    }
+
+    // Returns the index of the id, assigning the next free one if it is new
+    public int intern(String id) {
+        Integer index = indexById.get(id);
+        if (index == null) {
+            index = ids.size();
+            indexById.put(id, index);
+            ids.add(id);
+        }
+        return index;
+    }
+
+    // Returns -1 for unknown ids
+    public int indexOf(String id) {
+        Integer index = indexById.get(id);
+        return index == null ? -1 : index;
+    }
+
+    public String idOf(int index) {
+        return ids.get(index);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public void encodeSegments(List<Segment> segments) {
+        for (Segment segment : segments) {
+            int index = intern(segment.getId());
+            segment.setId(idOf(index));
+            segment.setSegmentIndex(index);
+        }
+    }
+}
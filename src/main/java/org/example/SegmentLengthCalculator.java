@@ -1,75 +1,106 @@
 package org.example;
 
-import org.jxmapviewer.viewer.GeoPosition;
-
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.stream.*;
 
 public class SegmentLengthCalculator {
+    private static final int BATCH_SIZE = 1 << 16;
 
     public static void main(String[] args) {
         try {
             String inputFile = "segments_test.csv";
             String outputFile = "segments_lengths.csv";
+            GeometryFormat format = args.length > 0 ? GeometryFormat.valueOf(args[0].toUpperCase()) : GeometryFormat.WKT;
+            PolylineLengthEngine.DistanceMode mode = args.length > 1
+                    ? PolylineLengthEngine.DistanceMode.valueOf(args[1].toUpperCase())
+                    : PolylineLengthEngine.DistanceMode.HAVERSINE;
 
-            List<SegmentLength> segmentLengths = calculateSegmentLengths(inputFile);
-            writeSegmentLengthsToCSV(segmentLengths, outputFile);
+            int count = calculateSegmentLengthsToCSV(inputFile, outputFile, format, mode);
+            System.out.printf("Written %d segment lengths to %s%n", count, outputFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public static List<SegmentLength> calculateSegmentLengths(String inputFile) throws IOException {
-        List<SegmentLength> segmentLengths = new ArrayList<>();
-        List<String> lines = Files.readAllLines(Paths.get(inputFile));
-
-        for (String line : lines) {
-            String[] columns = line.split("\\|");
-            if (columns.length >= 10 && columns[13].startsWith("LINESTRING")) {
-                String segmentId = columns[0];
-                String geometry = columns[13];
-                double length = calculateLengthFromWKT(geometry);
-
-                segmentLengths.add(new SegmentLength(segmentId, geometry, length));
-                System.out.printf("Processed segment %s with length %.2f meters%n", segmentId, length);
+    // Streams the segments in batches, computes each batch's lengths on all cores and writes
+    // them straight out, so memory stays bounded by the batch size whatever the input size.
+    public static int calculateSegmentLengthsToCSV(String inputFile, String outputFile, GeometryFormat format,
+                                                   PolylineLengthEngine.DistanceMode mode) throws IOException {
+        int count = 0;
+        try (Stream<SegmentGeometry> geometries = new CSVLoader().streamSegmentGeometries(inputFile, format);
+             BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile))) {
+            writer.write("id|geometry:1|length");
+            writer.newLine();
+
+            Iterator<SegmentGeometry> iterator = geometries
+                    .filter(geometry -> WktTokenizer.isLineString(geometry.getWkt()))
+                    .iterator();
+            List<SegmentGeometry> batch = new ArrayList<>(BATCH_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                    double[] lengths = calculateLengths(batch, mode);
+                    for (int i = 0; i < batch.size(); i++) {
+                        writer.write(String.format("%s|%s|%.2f", batch.get(i).getId(), batch.get(i).getWkt(), lengths[i]));
+                        writer.newLine();
+                    }
+                    count += batch.size();
+                    batch.clear();
+                }
             }
         }
+        return count;
+    }
 
-        return segmentLengths;
+    public static double[] calculateLengths(List<SegmentGeometry> geometries, PolylineLengthEngine.DistanceMode mode) {
+        PolylineStore.Builder builder = new PolylineStore.Builder(geometries.size(), geometries.size() * 8);
+        for (SegmentGeometry geometry : geometries) {
+            builder.add(geometry.getCoordinates());
+        }
+        return PolylineLengthEngine.computeLengths(builder.build(), mode);
     }
 
-    public static double calculateLengthFromWKT(String wkt) {
-        List<GeoPosition> positions = parseWKTToPositions(wkt);
-        double totalLength = 0.0;
+    public static List<SegmentLength> calculateSegmentLengths(String inputFile) throws IOException {
+        return calculateSegmentLengths(inputFile, GeometryFormat.WKT);
+    }
 
-        for (int i = 0; i < positions.size() - 1; i++) {
-            totalLength += haversineDistance(positions.get(i), positions.get(i + 1));
+    public static List<SegmentLength> calculateSegmentLengths(String inputFile, GeometryFormat format) throws IOException {
+        List<SegmentGeometry> geometries;
+        try (Stream<SegmentGeometry> stream = new CSVLoader().streamSegmentGeometries(inputFile, format)) {
+            geometries = stream.filter(geometry -> WktTokenizer.isLineString(geometry.getWkt())).collect(Collectors.toList());
         }
 
-        return totalLength;
+        double[] lengths = calculateLengths(geometries, PolylineLengthEngine.DistanceMode.HAVERSINE);
+        List<SegmentLength> segmentLengths = new ArrayList<>(geometries.size());
+        for (int i = 0; i < geometries.size(); i++) {
+            SegmentGeometry geometry = geometries.get(i);
+            segmentLengths.add(new SegmentLength(geometry.getId(), geometry.getWkt(), lengths[i]));
+            System.out.printf("Processed segment %s with length %.2f meters%n", geometry.getId(), lengths[i]);
+        }
+        return segmentLengths;
     }
 
-    private static List<GeoPosition> parseWKTToPositions(String wkt) {
-        wkt = wkt.replace("LINESTRING (", "").replace(")", "");
-        String[] coords = wkt.split(", ");
-        List<GeoPosition> positions = new ArrayList<>();
-        for (String coord : coords) {
-            String[] latLon = coord.split(" ");
-            double lat = Double.parseDouble(latLon[1]);
-            double lon = Double.parseDouble(latLon[0]);
-            positions.add(new GeoPosition(lat, lon));
+    // Coordinates are (lat, lon) pairs interleaved
+    public static double calculateLengthFromCoordinates(double[] coordinates) {
+        double totalLength = 0.0;
+        for (int i = 2; i + 1 < coordinates.length; i += 2) {
+            totalLength += haversineDistance(coordinates[i - 2], coordinates[i - 1], coordinates[i], coordinates[i + 1]);
         }
-        return positions;
+        return totalLength;
+    }
+
+    public static double calculateLengthFromWKT(String wkt) {
+        return calculateLengthFromCoordinates(WktTokenizer.parseLineString(wkt));
     }
 
-    private static double haversineDistance(GeoPosition pos1, GeoPosition pos2) {
+    static double haversineDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
         final int R = 6371000; // Radius of the Earth in meters
-        double lat1 = Math.toRadians(pos1.getLatitude());
-        double lon1 = Math.toRadians(pos1.getLongitude());
-        double lat2 = Math.toRadians(pos2.getLatitude());
-        double lon2 = Math.toRadians(pos2.getLongitude());
+        double lat1 = Math.toRadians(latitude1);
+        double lon1 = Math.toRadians(longitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double lon2 = Math.toRadians(longitude2);
 
         double dlat = lat2 - lat1;
         double dlon = lon2 - lon1;
@@ -0,0 +1,37 @@
+package org.example;
+
+class SegmentPart {
+    private String id;
+    private String segmentId;
+    private String geometry;
+    private double length;
+
+    public SegmentPart(String id, String segmentId, String geometry, double length) {
+        this.id = id;
+        this.segmentId = segmentId;
+        this.geometry = geometry;
+        this.length = length;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSegmentId() {
+        return segmentId;
+    }
+
+    public String getGeometry() {
+        return geometry;
+    }
+
+    public double getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(id.length() + segmentId.length() + geometry.length() + 2)
+                .append(id).append('|').append(segmentId).append('|').append(geometry).toString();
+    }
+}
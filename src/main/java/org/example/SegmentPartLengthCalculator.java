@@ -1,87 +1,110 @@
 package org.example;
 
-import org.jxmapviewer.viewer.GeoPosition;
-
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 public class SegmentPartLengthCalculator {
+    private static final int BATCH_SIZE = 4096;
+    private static final String LENGTH_COLUMN = "length";
 
     public static void main(String[] args) {
         try {
             String inputFile = "segment_parts.csv";
 
             // Calculate the lengths and update the CSV
-            updateSegmentLengths(inputFile);
+            int count = updateSegmentLengths(inputFile);
+            System.out.println("Updated the lengths of " + count + " segment parts in " + inputFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public static void updateSegmentLengths(String filePath) throws IOException {
-        Path path = Paths.get(filePath);
-        List<String> lines = Files.readAllLines(path);
-        List<String> updatedLines = new ArrayList<>();
-
-        // Add header
-        String header = lines.get(0) + "|length";
-        updatedLines.add(header);
-
-        // Process each line
-        for (int i = 1; i < lines.size(); i++) {
-            String line = lines.get(i);
-            String[] columns = line.split("\\|");
-            String geometry = columns[2];
-            double length = calculateLengthFromWKT(geometry);
-            String updatedLine = line + "|" + length;
-            updatedLines.add(updatedLine);
+    // Rewrites the file with a trailing length column computed from the geometry. An existing
+    // length column (or several, left by older versions that appended one per run) is replaced,
+    // so reruns are safe. Lines are streamed in batches whose lengths are computed in parallel
+    // and written in order to a temp file that atomically replaces the input at the end.
+    public static int updateSegmentLengths(String filePath) throws IOException {
+        Path path = Paths.get(filePath).toAbsolutePath();
+        String[] header;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Missing header in " + filePath);
+            }
+            header = line.split("\\|", -1);
         }
 
-        // Write back to the same file
-        Files.write(path, updatedLines);
-    }
-
-    public static double calculateLengthFromWKT(String wkt) {
-        List<GeoPosition> positions = parseWKTToPositions(wkt);
-        double totalLength = 0.0;
-
-        for (int i = 0; i < positions.size() - 1; i++) {
-            totalLength += haversineDistance(positions.get(i), positions.get(i + 1));
+        // Every column but the length ones is copied through
+        int[] keptColumns = new int[header.length];
+        int keptCount = 0;
+        int geometryColumn = -1;
+        for (int i = 0; i < header.length; i++) {
+            if (!header[i].equals(LENGTH_COLUMN)) {
+                if (header[i].equals("geometry")) {
+                    geometryColumn = keptCount;
+                }
+                keptColumns[keptCount++] = i;
+            }
+        }
+        int[] columns = Arrays.copyOf(keptColumns, keptCount);
+        int geometry = geometryColumn >= 0 ? geometryColumn : Math.min(2, keptCount - 1);
+
+        int maxInFlight = ForkJoinPool.commonPool().getParallelism() * 2;
+        int count = 0;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DelimitedRowReader reader = DelimitedRowReader.open(path, '|', true, columns);
+             BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+            StringBuilder headerLine = new StringBuilder();
+            for (int column : columns) {
+                headerLine.append(header[column]).append('|');
+            }
+            writer.write(headerLine.append(LENGTH_COLUMN).toString());
+            writer.newLine();
+
+            Deque<CompletableFuture<String>> pending = new ArrayDeque<>();
+            List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+            while (reader.hasNext()) {
+                batch.add(reader.next().clone());
+                if (batch.size() == BATCH_SIZE || !reader.hasNext()) {
+                    List<String[]> toMeasure = batch;
+                    pending.addLast(CompletableFuture.supplyAsync(() -> measureBatch(toMeasure, geometry)));
+                    count += batch.size();
+                    batch = new ArrayList<>(BATCH_SIZE);
+                    if (pending.size() >= maxInFlight) {
+                        writer.write(pending.removeFirst().join());
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                writer.write(pending.removeFirst().join());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
         }
 
-        return totalLength;
+        // Readers see either the old or the new file, never a partial one
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
     }
 
-    private static List<GeoPosition> parseWKTToPositions(String wkt) {
-        wkt = wkt.replace("LINESTRING (", "").replace(")", "");
-        String[] coords = wkt.split(", ");
-        List<GeoPosition> positions = new ArrayList<>();
-        for (String coord : coords) {
-            String[] latLon = coord.split(" ");
-            double lat = Double.parseDouble(latLon[1].replace(",", "."));
-            double lon = Double.parseDouble(latLon[0].replace(",", "."));
-            positions.add(new GeoPosition(lat, lon));
+    // The batch's lines with their lengths appended, ready to be written
+    private static String measureBatch(List<String[]> lines, int geometryColumn) {
+        StringBuilder out = new StringBuilder(lines.size() * 128);
+        for (String[] line : lines) {
+            for (String field : line) {
+                out.append(field).append('|');
+            }
+            out.append(calculateLengthFromWKT(line[geometryColumn])).append(System.lineSeparator());
         }
-        return positions;
+        return out.toString();
     }
 
-    private static double haversineDistance(GeoPosition pos1, GeoPosition pos2) {
-        final int R = 6371000; // Radius of the Earth in meters
-        double lat1 = Math.toRadians(pos1.getLatitude());
-        double lon1 = Math.toRadians(pos1.getLongitude());
-        double lat2 = Math.toRadians(pos2.getLatitude());
-        double lon2 = Math.toRadians(pos2.getLongitude());
-
-        double dlat = lat2 - lat1;
-        double dlon = lon2 - lon1;
-
-        double a = Math.sin(dlat / 2) * Math.sin(dlat / 2) +
-                Math.cos(lat1) * Math.cos(lat2) *
-                        Math.sin(dlon / 2) * Math.sin(dlon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        return R * c;
+    // Parts files may hold locale-formatted geometries ("24,03 49,82, 24,04 49,83")
+    public static double calculateLengthFromWKT(String wkt) {
+        return SegmentLengthCalculator.calculateLengthFromCoordinates(WktTokenizer.parseLineString(wkt, true));
     }
 }
@@ -3,56 +3,426 @@ package org.example;
 import com.opencsv.*;
 import com.opencsv.exceptions.CsvValidationException;
 
-import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+// Joins segment parts (id|segmentId|geometry|length) with speeds (segmentId,time,avgSpeed)
+// as a partitioned hash join. When the speeds do not fit the memory budget both inputs are
+// hash-partitioned by segment id into temp files, and partitions are joined in parallel,
+// as many at once as the budget allows. Each join holds only its partition's speeds in
+// memory, grouped by a SegmentDictionary index of the partition, and streams its parts. A partition that is still too large, because of hash
+// skew, is partitioned again with another seed. Output rows are grouped by partition
+// and keep input order within it.
+//
+// ROWS output is one row per part and time, repeating the part's geometry and length.
+// NORMALIZED output writes every joined part once (id|segmentId|geometry|length, the
+// segment parts format) plus a wide speeds table with one row per part and one column per
+// time (empty when missing), read back with loadSegmentParts and loadPartSpeedTable.
 public class SegmentPartsSpeedJoiner {
+    public enum OutputMode {ROWS, NORMALIZED}
+
+    private static final int MAX_PARTITIONS = 256;
+    private static final int MAX_DEPTH = 3;
+    private static final long POOL_TERMINATION_SECONDS = 60;
+    private static final int BYTES_IN_MEMORY_PER_BYTE = 4; // Heap per byte of speeds text once loaded
+    private static final String[] HEADER = {"id", "segmentId", "geometry", "length", "time", "avgSpeed"};
 
     public static void main(String[] args) {
         try {
             String segmentPartsFile = "segment_parts.csv";
             String avgSpeedsFile = "avg_speeds_per_hour.csv";
-            String outputFile = "segment_parts_speeds.csv";
+            OutputMode mode = args.length > 0 ? OutputMode.valueOf(args[0].toUpperCase()) : OutputMode.ROWS;
 
-            joinSegmentPartsAndSpeeds(segmentPartsFile, avgSpeedsFile, outputFile);
-            System.out.println("Segment parts and speeds have been successfully joined and written to " + outputFile);
-        } catch (IOException | CsvValidationException e) {
+            if (mode == OutputMode.NORMALIZED) {
+                String partsOutputFile = "segment_parts_joined.csv";
+                String speedsOutputFile = "segment_parts_speeds_wide.csv";
+                long parts = joinSegmentPartsAndSpeeds(Path.of(segmentPartsFile), Path.of(avgSpeedsFile), mode,
+                        Path.of(partsOutputFile), Path.of(speedsOutputFile), Runtime.getRuntime().maxMemory() / 4);
+                System.out.println(parts + " segment parts and their speeds have been successfully joined and written to "
+                        + partsOutputFile + " and " + speedsOutputFile);
+            } else {
+                String outputFile = "segment_parts_speeds.csv";
+                long rows = joinSegmentPartsAndSpeeds(segmentPartsFile, avgSpeedsFile, outputFile);
+                System.out.println(rows + " segment part speeds have been successfully joined and written to " + outputFile);
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public static void joinSegmentPartsAndSpeeds(String segmentPartsFile, String avgSpeedsFile, String outputFile) throws IOException, CsvValidationException {
-        List<SegmentPart> segmentParts = loadSegmentParts(segmentPartsFile);
-        List<AvgSpeed> avgSpeeds = loadAvgSpeeds(avgSpeedsFile);
+    public static long joinSegmentPartsAndSpeeds(String segmentPartsFile, String avgSpeedsFile, String outputFile) throws IOException {
+        return joinSegmentPartsAndSpeeds(Path.of(segmentPartsFile), Path.of(avgSpeedsFile), Path.of(outputFile),
+                Runtime.getRuntime().maxMemory() / 4);
+    }
 
-        Map<String, List<AvgSpeed>> avgSpeedMap = avgSpeeds.stream()
-                .collect(Collectors.groupingBy(AvgSpeed::getSegmentId));
+    public static long joinSegmentPartsAndSpeeds(Path segmentPartsFile, Path avgSpeedsFile, Path outputFile,
+                                                 long memoryBudget) throws IOException {
+        return joinSegmentPartsAndSpeeds(segmentPartsFile, avgSpeedsFile, OutputMode.ROWS, outputFile, null, memoryBudget);
+    }
 
-        try (CSVWriter writer = new CSVWriter(new FileWriter(outputFile))) {
-            writer.writeNext(new String[]{"id", "segmentId", "geometry", "length", "time", "avgSpeed"});
+    // Returns the number of rows written, for NORMALIZED the number of joined parts.
+    // speedsOutputFile is only used (and required) for NORMALIZED output.
+    public static long joinSegmentPartsAndSpeeds(Path segmentPartsFile, Path avgSpeedsFile, OutputMode mode,
+                                                 Path outputFile, Path speedsOutputFile, long memoryBudget) throws IOException {
+        Path output = outputFile.toAbsolutePath();
+        Path speedsOutput = mode == OutputMode.NORMALIZED ? speedsOutputFile.toAbsolutePath() : null;
+        Path workDirectory = Files.createTempDirectory(output.getParent(), ".join");
+        try {
+            JoinSettings settings = new JoinSettings(mode, mode == OutputMode.NORMALIZED ? readTimes(avgSpeedsFile) : null);
+            long speedsBytes = Files.size(avgSpeedsFile);
+            int partitions = partitionCount(speedsBytes, memoryBudget);
+            List<JoinTask> tasks = new ArrayList<>();
+            if (partitions == 1) {
+                tasks.add(new JoinTask(segmentPartsFile, avgSpeedsFile, true, workDirectory, "out-0", settings));
+            } else {
+                Path[] partsPartitions = partition(segmentPartsFile, true, '|', 4, 1, partitions, 0, workDirectory, "parts");
+                Path[] speedsPartitions = partition(avgSpeedsFile, true, ',', 3, 0, partitions, 0, workDirectory, "speeds");
+                for (int i = 0; i < partitions; i++) {
+                    tasks.add(new JoinTask(partsPartitions[i], speedsPartitions[i], false, workDirectory, "out-" + i, settings));
+                }
+            }
 
-            for (SegmentPart segmentPart : segmentParts) {
-                List<AvgSpeed> segmentSpeeds = avgSpeedMap.get(segmentPart.getSegmentId());
-                if (segmentSpeeds != null) {
-                    for (AvgSpeed avgSpeed : segmentSpeeds) {
-                        writer.writeNext(new String[]{
-                                segmentPart.getId(),
-                                segmentPart.getSegmentId(),
-                                segmentPart.getGeometry(),
-                                String.valueOf(segmentPart.getLength()),
-                                avgSpeed.getTime(),
-                                String.valueOf(avgSpeed.getAvgSpeed())
-                        });
+            // Concurrent partitions share the budget
+            long partitionBytes = Math.max(1, speedsBytes * BYTES_IN_MEMORY_PER_BYTE / partitions);
+            int parallelism = (int) Math.max(1, Math.min(ForkJoinPool.commonPool().getParallelism(), memoryBudget / partitionBytes));
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            long rows = 0;
+            try {
+                List<CompletableFuture<Long>> joins = new ArrayList<>();
+                for (JoinTask task : tasks) {
+                    joins.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return joinPartition(task, memoryBudget / parallelism, 0, workDirectory);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, pool));
+                }
+                for (CompletableFuture<Long> join : joins) {
+                    rows += join.join();
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            } finally {
+                // Joins still running after a failure must stop writing before the work directory goes
+                pool.shutdownNow();
+                try {
+                    if (!pool.awaitTermination(POOL_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                        System.out.println("Partition joins still running, the work directory may not be removed");
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            // Header plus the partition outputs in partition order, renamed into place at the end
+            Path joined = workDirectory.resolve("joined.csv");
+            if (mode == OutputMode.ROWS) {
+                try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(joined))) {
+                    writer.writeNext(HEADER);
+                }
+            } else {
+                Files.writeString(joined, "id|segmentId|geometry|length" + System.lineSeparator());
+            }
+            concatenate(tasks, false, joined);
+            if (mode == OutputMode.NORMALIZED) {
+                Path joinedSpeeds = workDirectory.resolve("joined-speeds.csv");
+                Files.writeString(joinedSpeeds, "id," + String.join(",", settings.times) + System.lineSeparator());
+                concatenate(tasks, true, joinedSpeeds);
+                Files.move(joinedSpeeds, speedsOutput, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(joined, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } finally {
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    // Distinct times of the speeds file in sorted order, the columns of the wide speeds table
+    private static String[] readTimes(Path avgSpeedsFile) throws IOException {
+        TreeSet<String> times = new TreeSet<>();
+        try (DelimitedRowReader reader = DelimitedRowReader.open(avgSpeedsFile, ',', true, 1)) {
+            while (reader.hasNext()) {
+                times.add(reader.next()[0]);
+            }
+        }
+        return times.toArray(new String[0]);
+    }
+
+    private static void concatenate(List<JoinTask> tasks, boolean speeds, Path joined) throws IOException {
+        try (FileChannel target = FileChannel.open(joined, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (JoinTask task : tasks) {
+                append(speeds ? task.speedsOutput : task.output, target);
+            }
+        }
+    }
+
+    private static void append(Path file, FileChannel target) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    private static int partitionCount(long speedsBytes, long memoryBudget) {
+        long needed = speedsBytes * BYTES_IN_MEMORY_PER_BYTE;
+        return (int) Math.min(MAX_PARTITIONS, Math.max(1, (needed + memoryBudget - 1) / memoryBudget));
+    }
+
+    private static int partitionOf(String segmentId, int partitions, int seed) {
+        int hash = segmentId.hashCode() * (0x9E3779B9 + 2 * seed);
+        return Math.floorMod(hash ^ (hash >>> 16), partitions);
+    }
+
+    // Copies every row of the file to the partition file of its segment id
+    private static Path[] partition(Path file, boolean skipHeader, char separator, int columns, int segmentIdColumn,
+                                    int partitions, int seed, Path directory, String prefix) throws IOException {
+        int[] projection = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            projection[i] = i;
+        }
+        Path[] paths = new Path[partitions];
+        BufferedWriter[] writers = new BufferedWriter[partitions];
+        try {
+            for (int i = 0; i < partitions; i++) {
+                paths[i] = directory.resolve(prefix + "-" + seed + "-" + i + ".csv");
+                writers[i] = Files.newBufferedWriter(paths[i]);
+            }
+            try (DelimitedRowReader reader = DelimitedRowReader.open(file, separator, skipHeader, projection)) {
+                while (reader.hasNext()) {
+                    String[] line = reader.next();
+                    BufferedWriter writer = writers[partitionOf(line[segmentIdColumn], partitions, seed)];
+                    for (int i = 0; i < columns; i++) {
+                        if (i > 0) {
+                            writer.write(separator);
+                        }
+                        writer.write(line[i]);
+                    }
+                    writer.newLine();
+                }
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+        return paths;
+    }
+
+    // Builds the speeds of one partition in memory and streams its parts past them
+    private static long joinPartition(JoinTask task, long memoryBudget, int depth, Path workDirectory) throws IOException {
+        long speedsBytes = Files.size(task.avgSpeedsFile);
+        int partitions = partitionCount(speedsBytes, memoryBudget);
+        if (partitions > 1 && depth < MAX_DEPTH) {
+            Path directory = Files.createTempDirectory(workDirectory, ".skew");
+            Path[] partsPartitions = partition(task.segmentPartsFile, task.hasHeaders, '|', 4, 1, partitions, depth + 1, directory, "parts");
+            Path[] speedsPartitions = partition(task.avgSpeedsFile, task.hasHeaders, ',', 3, 0, partitions, depth + 1, directory, "speeds");
+            List<JoinTask> subTasks = new ArrayList<>();
+            long rows = 0;
+            for (int i = 0; i < partitions; i++) {
+                JoinTask subTask = new JoinTask(partsPartitions[i], speedsPartitions[i], false, directory, "out-" + i, task.settings);
+                rows += joinPartition(subTask, memoryBudget, depth + 1, workDirectory);
+                subTasks.add(subTask);
+            }
+            Files.createFile(task.output);
+            concatenate(subTasks, false, task.output);
+            if (task.speedsOutput != null) {
+                Files.createFile(task.speedsOutput);
+                concatenate(subTasks, true, task.speedsOutput);
+            }
+            deleteRecursively(directory);
+            return rows;
+        }
+
+        // Speeds grouped by the partition's dense segment index as flat time,speed pairs
+        SegmentDictionary dictionary = new SegmentDictionary();
+        List<List<String>> avgSpeedsBySegment = new ArrayList<>();
+        try (DelimitedRowReader reader = DelimitedRowReader.open(task.avgSpeedsFile, ',', task.hasHeaders, 0, 1, 2)) {
+            while (reader.hasNext()) {
+                String[] line = reader.next();
+                int segment = dictionary.intern(line[0]);
+                if (segment == avgSpeedsBySegment.size()) {
+                    avgSpeedsBySegment.add(new ArrayList<>());
+                }
+                List<String> segmentSpeeds = avgSpeedsBySegment.get(segment);
+                segmentSpeeds.add(line[1]);
+                segmentSpeeds.add(String.valueOf(Double.parseDouble(line[2].replace(",", "."))));
+            }
+        }
+
+        if (task.settings.mode == OutputMode.NORMALIZED) {
+            return writeNormalized(task, dictionary, avgSpeedsBySegment);
+        }
+
+        long rows = 0;
+        try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(task.output));
+             DelimitedRowReader reader = DelimitedRowReader.open(task.segmentPartsFile, '|', task.hasHeaders, 0, 1, 2, 3)) {
+            String[] row = new String[HEADER.length];
+            while (reader.hasNext()) {
+                String[] line = reader.next();
+                int segment = dictionary.indexOf(line[1]);
+                if (segment < 0) {
+                    continue;
+                }
+                List<String> segmentSpeeds = avgSpeedsBySegment.get(segment);
+                row[0] = line[0];
+                row[1] = line[1];
+                row[2] = line[2];
+                row[3] = String.valueOf(Double.parseDouble(line[3].replace(",", ".")));
+                for (int i = 0; i < segmentSpeeds.size(); i += 2) {
+                    row[4] = segmentSpeeds.get(i);
+                    row[5] = segmentSpeeds.get(i + 1);
+                    writer.writeNext(row);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static long writeNormalized(JoinTask task, SegmentDictionary dictionary, List<List<String>> avgSpeedsBySegment)
+            throws IOException {
+        Map<String, Integer> columnOfTime = task.settings.columnOfTime;
+        String[] values = new String[task.settings.times.length];
+        StringBuilder row = new StringBuilder();
+        long parts = 0;
+        try (BufferedWriter partsWriter = Files.newBufferedWriter(task.output);
+             BufferedWriter speedsWriter = Files.newBufferedWriter(task.speedsOutput);
+             DelimitedRowReader reader = DelimitedRowReader.open(task.segmentPartsFile, '|', task.hasHeaders, 0, 1, 2, 3)) {
+            while (reader.hasNext()) {
+                String[] line = reader.next();
+                int segment = dictionary.indexOf(line[1]);
+                if (segment < 0) {
+                    continue;
+                }
+                List<String> segmentSpeeds = avgSpeedsBySegment.get(segment);
+                row.setLength(0);
+                row.append(line[0]).append('|').append(line[1]).append('|').append(line[2]).append('|')
+                        .append(Double.parseDouble(line[3].replace(",", ".")));
+                partsWriter.write(row.toString());
+                partsWriter.newLine();
+
+                Arrays.fill(values, "");
+                for (int i = 0; i < segmentSpeeds.size(); i += 2) {
+                    values[columnOfTime.get(segmentSpeeds.get(i))] = segmentSpeeds.get(i + 1);
+                }
+                row.setLength(0);
+                row.append(line[0]);
+                for (String value : values) {
+                    row.append(',').append(value);
+                }
+                speedsWriter.write(row.toString());
+                speedsWriter.newLine();
+                parts++;
+            }
+        }
+        return parts;
+    }
+
+    // Reads the wide speeds table of NORMALIZED output
+    public static PartSpeedTable loadPartSpeedTable(String filePath) throws IOException {
+        String header;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath))) {
+            header = reader.readLine();
+        }
+        if (header == null || !header.startsWith("id")) {
+            throw new IOException("Not a part speeds table: " + filePath);
+        }
+        String[] columns = header.split(",", -1);
+        String[] times = Arrays.copyOfRange(columns, 1, columns.length);
+        int[] projection = new int[columns.length];
+        for (int i = 0; i < projection.length; i++) {
+            projection[i] = i;
+        }
+
+        List<String> partIds = new ArrayList<>();
+        float[] speeds = new float[times.length * 1024];
+        try (DelimitedRowReader reader = DelimitedRowReader.open(Path.of(filePath), ',', true, projection)) {
+            while (reader.hasNext()) {
+                String[] line = reader.next();
+                int row = partIds.size();
+                partIds.add(line[0]);
+                if ((row + 1) * times.length > speeds.length) {
+                    speeds = Arrays.copyOf(speeds, speeds.length * 2);
+                }
+                for (int t = 0; t < times.length; t++) {
+                    String value = line[t + 1];
+                    speeds[row * times.length + t] = value == null || value.isEmpty() ? Float.NaN : Float.parseFloat(value);
                 }
             }
         }
+        return new PartSpeedTable(times, partIds.toArray(new String[0]), Arrays.copyOf(speeds, partIds.size() * times.length));
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static class JoinSettings {
+        final OutputMode mode;
+        final String[] times;
+        final Map<String, Integer> columnOfTime = new HashMap<>();
+
+        JoinSettings(OutputMode mode, String[] times) {
+            this.mode = mode;
+            this.times = times;
+            for (int i = 0; times != null && i < times.length; i++) {
+                columnOfTime.put(times[i], i);
+            }
+        }
+    }
+
+    private static class JoinTask {
+        final Path segmentPartsFile;
+        final Path avgSpeedsFile;
+        final boolean hasHeaders;
+        final Path output;
+        final Path speedsOutput; // NORMALIZED only
+        final JoinSettings settings;
+
+        JoinTask(Path segmentPartsFile, Path avgSpeedsFile, boolean hasHeaders, Path directory, String name, JoinSettings settings) {
+            this.segmentPartsFile = segmentPartsFile;
+            this.avgSpeedsFile = avgSpeedsFile;
+            this.hasHeaders = hasHeaders;
+            this.output = directory.resolve(name + ".csv");
+            this.speedsOutput = settings.mode == OutputMode.NORMALIZED ? directory.resolve(name + "-speeds.csv") : null;
+            this.settings = settings;
+        }
     }
 
     public static List<SegmentPart> loadSegmentParts(String filePath) throws IOException, CsvValidationException {
@@ -80,27 +450,39 @@ public class SegmentPartsSpeedJoiner {
     }
 
     public static List<AvgSpeed> loadAvgSpeeds(String filePath) throws IOException {
-        List<AvgSpeed> avgSpeeds = new ArrayList<>();
+        return ParallelRowLoader.load(Paths.get(filePath), ',', true, line -> {
+            String segmentId = line[0];
+            String time = line[1];
+            double avgSpeed = Double.parseDouble(line[2].replace(",", "."));
+            return new AvgSpeed(segmentId, time, avgSpeed);
+        }, 0, 1, 2);
+    }
+}
 
-        CSVParser parser = new CSVParserBuilder()
-                .withSeparator(',')
-                .withIgnoreQuotations(true)
-                .build();
+class PartSpeedTable {
+    private final String[] times;
+    private final String[] partIds;
+    private final float[] speeds; // [part * times.length + time], NaN = no data
 
-        try (CSVReader csvReader = new CSVReaderBuilder(Files.newBufferedReader(Paths.get(filePath)))
-                .withSkipLines(1)
-                .withCSVParser(parser)
-                .build()) {
-            String[] line;
-            while ((line = csvReader.readNext()) != null) {
-                String segmentId = line[0];
-                String time = line[1];
-                double avgSpeed = Double.parseDouble(line[2].replace(",", "."));
-                avgSpeeds.add(new AvgSpeed(segmentId, time, avgSpeed));
-            }
-        } catch (CsvValidationException e) {
-            throw new RuntimeException(e);
-        }
-        return avgSpeeds;
+    public PartSpeedTable(String[] times, String[] partIds, float[] speeds) {
+        this.times = times;
+        this.partIds = partIds;
+        this.speeds = speeds;
+    }
+
+    public String[] getTimes() {
+        return times;
+    }
+
+    public int getPartCount() {
+        return partIds.length;
+    }
+
+    public String getPartId(int part) {
+        return partIds[part];
+    }
+
+    public double getSpeed(int part, int time) {
+        return speeds[part * times.length + time];
     }
 }
@@ -0,0 +1,121 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// Static STR-packed R-tree over polyline bounding boxes in normalized Web Mercator units.
+// Built once, stored as flat arrays per level; queries visit every polyline whose box
+// intersects the query box.
+public class SegmentRTree {
+    private static final int NODE_CAPACITY = 16;
+
+    // Level 0 holds the item boxes in packed order, every following level one box per node
+    // of NODE_CAPACITY consecutive entries of the level below. Boxes are minX, minY, maxX, maxY.
+    private final double[][] levels;
+    private final int[] items;
+
+    private SegmentRTree(double[][] levels, int[] items) {
+        this.levels = levels;
+        this.items = items;
+    }
+
+    public static SegmentRTree build(PolylineStore polylines) {
+        int count = polylines.size();
+        double[] boxes = new double[count * 4];
+        IntStream.range(0, count).parallel().forEach(polyline -> {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (int v = polylines.getStart(polyline); v < polylines.getEnd(polyline); v++) {
+                double x = WebMercator.x(polylines.getLongitude(v));
+                double y = WebMercator.y(polylines.getLatitude(v));
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            // Empty polylines get an inverted box that never intersects anything
+            boxes[4 * polyline] = minX;
+            boxes[4 * polyline + 1] = minY;
+            boxes[4 * polyline + 2] = maxX;
+            boxes[4 * polyline + 3] = maxY;
+        });
+        return build(boxes);
+    }
+
+    static SegmentRTree build(double[] boxes) {
+        int count = boxes.length / 4;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+
+        // Sort-Tile-Recursive: vertical slices by center x, each slice sorted by center y
+        int leafCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+        int sliceSize = Math.max(1, sliceCount * NODE_CAPACITY);
+        Arrays.sort(order, Comparator.comparingDouble(i -> boxes[4 * i] + boxes[4 * i + 2]));
+        for (int from = 0; from < count; from += sliceSize) {
+            Arrays.sort(order, from, Math.min(count, from + sliceSize), Comparator.comparingDouble(i -> boxes[4 * i + 1] + boxes[4 * i + 3]));
+        }
+
+        int[] items = new int[count];
+        double[] leafBoxes = new double[count * 4];
+        for (int i = 0; i < count; i++) {
+            items[i] = order[i];
+            System.arraycopy(boxes, 4 * order[i], leafBoxes, 4 * i, 4);
+        }
+
+        double[][] levels = new double[1][];
+        levels[0] = leafBoxes;
+        while (levels[levels.length - 1].length > 4 * NODE_CAPACITY) {
+            double[] below = levels[levels.length - 1];
+            int belowCount = below.length / 4;
+            double[] level = new double[((belowCount + NODE_CAPACITY - 1) / NODE_CAPACITY) * 4];
+            for (int node = 0; node < level.length / 4; node++) {
+                double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                for (int child = node * NODE_CAPACITY; child < Math.min(belowCount, (node + 1) * NODE_CAPACITY); child++) {
+                    minX = Math.min(minX, below[4 * child]);
+                    minY = Math.min(minY, below[4 * child + 1]);
+                    maxX = Math.max(maxX, below[4 * child + 2]);
+                    maxY = Math.max(maxY, below[4 * child + 3]);
+                }
+                level[4 * node] = minX;
+                level[4 * node + 1] = minY;
+                level[4 * node + 2] = maxX;
+                level[4 * node + 3] = maxY;
+            }
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            levels[levels.length - 1] = level;
+        }
+        return new SegmentRTree(levels, items);
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public void query(double minX, double minY, double maxX, double maxY, IntConsumer visitor) {
+        int top = levels.length - 1;
+        for (int node = 0; node < levels[top].length / 4; node++) {
+            visit(top, node, minX, minY, maxX, maxY, visitor);
+        }
+    }
+
+    private void visit(int level, int node, double minX, double minY, double maxX, double maxY, IntConsumer visitor) {
+        double[] boxes = levels[level];
+        if (boxes[4 * node] > maxX || boxes[4 * node + 2] < minX || boxes[4 * node + 1] > maxY || boxes[4 * node + 3] < minY) {
+            return;
+        }
+        if (level == 0) {
+            visitor.accept(items[node]);
+            return;
+        }
+        int childCount = levels[level - 1].length / 4;
+        for (int child = node * NODE_CAPACITY; child < Math.min(childCount, (node + 1) * NODE_CAPACITY); child++) {
+            visit(level - 1, child, minX, minY, maxX, maxY, visitor);
+        }
+    }
+}
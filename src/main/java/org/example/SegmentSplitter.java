@@ -1,57 +1,57 @@
 package org.example;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 public class SegmentSplitter {
+    private static final int BATCH_SIZE = 4096;
+    private static final int MAX_REPORTED_IDS = 20;
 
+    // No parts when the geometry does not parse or has fewer than two vertices
     public static List<SegmentPart> splitSegment(SegmentPart segment) {
-        System.out.println(segment.getGeometry());
-        List<GeoPosition> positions = parseWKTToPositions(segment.getGeometry());
-        if (positions == null || positions.size() < 2) {
-            System.out.println("Invalid segment geometry");
+        double[] coordinates;
+        try {
+            coordinates = WktTokenizer.parseLineString(segment.getGeometry());
+        } catch (NumberFormatException e) {
+            return new ArrayList<>();
+        }
+        int vertexCount = coordinates.length / 2;
+        if (vertexCount < 2) {
             return new ArrayList<>();
         }
 
         List<SegmentPart> splitSegments = new ArrayList<>();
-        for (int i = 0; i < positions.size() - 1; i++) {
-            List<GeoPosition> segmentPositions = new ArrayList<>();
-            segmentPositions.add(positions.get(i));
-            segmentPositions.add(positions.get(i + 1));
-            String newSegmentGeometry = convertPositionsToWKT(segmentPositions);
-            SegmentPart newSegment = new SegmentPart(generateSegmentId(), segment.getSegmentId(), newSegmentGeometry, segment.getLength());
+        for (int i = 0; i < vertexCount - 1; i++) {
+            String newSegmentGeometry = convertCoordinatesToWKT(coordinates, i, i + 2);
+            SegmentPart newSegment = new SegmentPart(generateSegmentId(segment.getSegmentId(), i), segment.getSegmentId(), newSegmentGeometry, segment.getLength());
             splitSegments.add(newSegment);
         }
         return splitSegments;
     }
 
-    private static String generateSegmentId() {
-        return UUID.randomUUID().toString();
+    // Name-based UUID of (segmentId, part index): reruns over the same input produce the same ids
+    static String generateSegmentId(String segmentId, int index) {
+        return UUID.nameUUIDFromBytes((segmentId + '#' + index).getBytes(StandardCharsets.UTF_8)).toString();
     }
 
-    private static List<GeoPosition> parseWKTToPositions(String wkt) {
-        if (wkt == null || !wkt.startsWith("LINESTRING")) {
-            return null;
-        }
-        wkt = wkt.replace("LINESTRING (", "").replace(")", "");
-        String[] coords = wkt.split(", ");
-        List<GeoPosition> positions = new ArrayList<>();
-        for (String coord : coords) {
-            String[] latLon = coord.split(" ");
-            double lat = Double.parseDouble(latLon[1]);
-            double lon = Double.parseDouble(latLon[0]);
-            positions.add(new GeoPosition(lat, lon));
-        }
-        return positions;
-    }
-
-    private static String convertPositionsToWKT(List<GeoPosition> positions) {
+    // Coordinates are (lat, lon) pairs; WKT wants "lon lat"
+    private static String convertCoordinatesToWKT(double[] coordinates, int fromVertex, int toVertex) {
         StringBuilder sb = new StringBuilder("LINESTRING (");
-        for (int i = 0; i < positions.size(); i++) {
-            GeoPosition pos = positions.get(i);
-            sb.append(String.format("%f %f", pos.getLongitude(), pos.getLatitude()));
-            if (i < positions.size() - 1) {
+        for (int i = fromVertex; i < toVertex; i++) {
+            sb.append(coordinates[2 * i + 1]).append(' ').append(coordinates[2 * i]);
+            if (i < toVertex - 1) {
                 sb.append(", ");
             }
         }
@@ -59,73 +59,96 @@ public class SegmentSplitter {
         return sb.toString();
     }
 
-    public static void main(String[] args) throws Exception {
-        // Load segments from CSV
+    // Reads segments in batches, splits each batch on the fork-join pool and writes the parts
+    // in input order. At most maxInFlight batches are held at once, so memory is constant.
+    // Segments with invalid geometry are skipped and reported once at the end.
+    public static int splitSegmentsToCSV(String inputFile, String outputFile) throws IOException {
+        int maxInFlight = ForkJoinPool.commonPool().getParallelism() * 2;
+        int count = 0;
+        List<String> invalidIds = new ArrayList<>();
+        int invalid = 0;
         CSVLoader loader = new CSVLoader();
-        List<SegmentPart> segments = loader.loadSegmentsParts("segments.csv");
-
-        // Split each segment into smaller parts
-        List<SegmentPart> splitSegments = new ArrayList<>();
-        for (SegmentPart segment : segments) {
-            splitSegments.addAll(splitSegment(segment));
+        try (Stream<SegmentPart> segments = loader.streamSegmentsParts(inputFile);
+             BufferedWriter writer = Files.newBufferedWriter(Path.of(outputFile))) {
+            writer.write("id|segmentId|geometry");
+            writer.newLine();
+
+            Deque<CompletableFuture<SplitBatch>> pending = new ArrayDeque<>();
+            Iterator<SegmentPart> iterator = segments.iterator();
+            List<SegmentPart> batch = new ArrayList<>(BATCH_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                    List<SegmentPart> toSplit = batch;
+                    pending.addLast(CompletableFuture.supplyAsync(() -> splitBatch(toSplit)));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                    if (pending.size() >= maxInFlight) {
+                        SplitBatch split = pending.removeFirst().join();
+                        count += writeParts(writer, split.parts);
+                        invalid += collectInvalid(split, invalidIds);
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                SplitBatch split = pending.removeFirst().join();
+                count += writeParts(writer, split.parts);
+                invalid += collectInvalid(split, invalidIds);
+            }
         }
-
-        // Write the split segments to a new CSV file
-        loader.writeSegmentParts("segment_parts.csv", splitSegments);
-
-        System.out.println("Segment parts have been successfully written to segment_parts.csv");
-    }
-}
-
-class SegmentPart {
-    private String id;
-    private String segmentId;
-    private String geometry;
-    private double length;
-
-    public SegmentPart(String id, String segmentId, String geometry, double length) {
-        this.id = id;
-        this.segmentId = segmentId;
-        this.geometry = geometry;
-        this.length = length;
-    }
-
-    public String getId() {
-        return id;
-    }
-
-    public String getSegmentId() {
-        return segmentId;
+        if (invalid > 0) {
+            System.out.println("Skipped " + invalid + " segments with invalid geometry: " + String.join(", ", invalidIds)
+                    + (invalid > invalidIds.size() ? " and " + (invalid - invalidIds.size()) + " more" : ""));
+        }
+        return count;
     }
 
-    public String getGeometry() {
-        return geometry;
+    private static SplitBatch splitBatch(List<SegmentPart> segments) {
+        SplitBatch split = new SplitBatch(segments.size() * 4);
+        for (SegmentPart segment : segments) {
+            List<SegmentPart> parts = splitSegment(segment);
+            if (parts.isEmpty()) {
+                split.invalidIds.add(segment.getSegmentId());
+            }
+            split.parts.addAll(parts);
+        }
+        return split;
     }
 
-    public double getLength() {
-        return length;
+    // Keeps the first MAX_REPORTED_IDS ids, returns the batch's count
+    private static int collectInvalid(SplitBatch split, List<String> invalidIds) {
+        for (String id : split.invalidIds) {
+            if (invalidIds.size() == MAX_REPORTED_IDS) {
+                break;
+            }
+            invalidIds.add(id);
+        }
+        return split.invalidIds.size();
     }
 
-    @Override
-    public String toString() {
-        return String.format("%s|%s|%s", id, segmentId, geometry);
+    private static int writeParts(BufferedWriter writer, List<SegmentPart> parts) throws IOException {
+        for (SegmentPart part : parts) {
+            writer.write(part.getId());
+            writer.write('|');
+            writer.write(part.getSegmentId());
+            writer.write('|');
+            writer.write(part.getGeometry());
+            writer.newLine();
+        }
+        return parts.size();
     }
-}
 
-class GeoPosition {
-    private double latitude;
-    private double longitude;
+    public static void main(String[] args) throws Exception {
+        int count = splitSegmentsToCSV("segments.csv", "segment_parts.csv");
 
-    public GeoPosition(double latitude, double longitude) {
-        this.latitude = latitude;
-        this.longitude = longitude;
+        System.out.println(count + " segment parts have been successfully written to segment_parts.csv");
     }
 
-    public double getLatitude() {
-        return latitude;
-    }
+    private static class SplitBatch {
+        final List<SegmentPart> parts;
+        final List<String> invalidIds = new ArrayList<>();
 
-    public double getLongitude() {
-        return longitude;
+        SplitBatch(int expectedParts) {
+            this.parts = new ArrayList<>(expectedParts);
+        }
     }
 }
@@ -0,0 +1,128 @@
+package org.example;
+
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.stream.IntStream;
+
+// Douglas-Peucker level-of-detail pyramid for a PolylineStore, matched to the zoom levels
+// of a TileFactoryInfo. Every vertex gets the coarsest zoom at which Douglas-Peucker with
+// a half-pixel tolerance still keeps it. The level for zoom z is then the vertices whose
+// level is >= z, and each coarser level is a subset of the finer ones. End points are kept
+// at every zoom.
+public class SimplificationPyramid {
+    private final PolylineStore polylines;
+    private final byte[] vertexMaxZoom;
+
+    private SimplificationPyramid(PolylineStore polylines, byte[] vertexMaxZoom) {
+        this.polylines = polylines;
+        this.vertexMaxZoom = vertexMaxZoom;
+    }
+
+    public static SimplificationPyramid build(PolylineStore polylines, TileFactoryInfo info) {
+        int minZoom = info.getMinimumZoomLevel();
+        int maxZoom = info.getTotalMapZoom();
+        // Half a pixel at each zoom, in units of the whole map width
+        double[] tolerances = new double[maxZoom + 1];
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            tolerances[zoom] = 0.5 / WebMercator.getMapWidthInPixels(info, zoom);
+        }
+
+        byte[] vertexMaxZoom = new byte[polylines.getTotalVertexCount()];
+        IntStream.range(0, polylines.size()).parallel().forEach(polyline -> {
+            int start = polylines.getStart(polyline);
+            int end = polylines.getEnd(polyline);
+            if (end == start) {
+                return;
+            }
+            double[] significance = significance(polylines, start, end);
+            for (int v = start; v < end; v++) {
+                int zoom = minZoom - 1;
+                while (zoom < maxZoom && significance[v - start] > tolerances[zoom + 1]) {
+                    zoom++;
+                }
+                vertexMaxZoom[v] = (byte) zoom;
+            }
+        });
+        return new SimplificationPyramid(polylines, vertexMaxZoom);
+    }
+
+    // Douglas-Peucker split distances in normalized Web Mercator units. A vertex's value is
+    // capped by its parent's, so the vertices kept at a tolerance are exactly those > tolerance.
+    private static double[] significance(PolylineStore polylines, int start, int end) {
+        int count = end - start;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = WebMercator.x(polylines.getLongitude(start + i));
+            y[i] = WebMercator.y(polylines.getLatitude(start + i));
+        }
+
+        double[] significance = new double[count];
+        significance[0] = Double.POSITIVE_INFINITY;
+        significance[count - 1] = Double.POSITIVE_INFINITY;
+
+        // Stack of {from, to} vertex ranges with the cap inherited from the split that made them
+        Deque<int[]> ranges = new ArrayDeque<>();
+        Deque<Double> caps = new ArrayDeque<>();
+        if (count > 2) {
+            ranges.push(new int[]{0, count - 1});
+            caps.push(Double.POSITIVE_INFINITY);
+        }
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            double cap = caps.pop();
+            int from = range[0];
+            int to = range[1];
+            int farthest = -1;
+            double farthestDistance = -1;
+            for (int i = from + 1; i < to; i++) {
+                double distance = distanceToSegment(x[i], y[i], x[from], y[from], x[to], y[to]);
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            double value = Math.min(farthestDistance, cap);
+            significance[farthest] = value;
+            if (farthest - from > 1) {
+                ranges.push(new int[]{from, farthest});
+                caps.push(value);
+            }
+            if (to - farthest > 1) {
+                ranges.push(new int[]{farthest, to});
+                caps.push(value);
+            }
+        }
+        return significance;
+    }
+
+    private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    public PolylineStore getPolylines() {
+        return polylines;
+    }
+
+    public boolean isVisible(int vertex, int zoom) {
+        return vertexMaxZoom[vertex] >= zoom;
+    }
+
+    public int countVisible(int polyline, int zoom) {
+        int count = 0;
+        for (int v = polylines.getStart(polyline); v < polylines.getEnd(polyline); v++) {
+            if (isVisible(v, zoom)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,164 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// Running sum, count, min and max of speed observations in primitive arrays indexed by
+// [segment * slotCount + slot], optionally with a SpeedQuantiles sketch per cell. Filled
+// in one pass with add(), partial cubes built on different threads are combined with merge().
+public class SpeedCube {
+    private final int segmentCount;
+    private final int slotCount;
+    private final double[] sums;
+    private final int[] counts;
+    private final float[] mins; // Min and max only need float precision
+    private final float[] maxs;
+    private final SpeedQuantiles quantiles;
+    private long skippedObservations;
+
+    public SpeedCube(int segmentCount, int slotCount) {
+        this(segmentCount, slotCount, null);
+    }
+
+    // quantiles may already hold observations, e.g. a sketch read back from disk
+    public SpeedCube(int segmentCount, int slotCount, SpeedQuantiles quantiles) {
+        if (quantiles != null && (quantiles.getSegmentCount() != segmentCount || quantiles.getSlotCount() != slotCount)) {
+            throw new IllegalArgumentException("Quantile sketch shape does not match the cube");
+        }
+        this.segmentCount = segmentCount;
+        this.quantiles = quantiles;
+        this.slotCount = slotCount;
+        int cells = Math.multiplyExact(segmentCount, slotCount);
+        this.sums = new double[cells];
+        this.counts = new int[cells];
+        this.mins = new float[cells];
+        this.maxs = new float[cells];
+        Arrays.fill(mins, Float.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Float.NEGATIVE_INFINITY);
+    }
+
+    // Streams avg_speeds.csv (segment_id,time,avg_speed) into one partial cube per core and
+    // merges them, with fewer partials when that many would not fit in half the free heap.
+    // Observations of segments missing from the dictionary are only counted.
+    public static SpeedCube aggregate(Path avgSpeedsFile, SegmentDictionary dictionary, TimeSlots slots) throws IOException {
+        return aggregate(avgSpeedsFile, dictionary, slots, false);
+    }
+
+    public static SpeedCube aggregate(Path avgSpeedsFile, SegmentDictionary dictionary, TimeSlots slots,
+                                      boolean withQuantiles) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int segmentCount = dictionary.size();
+        int slotCount = slots.getSlotCount();
+        return ParallelRowLoader.aggregate(avgSpeedsFile, ',', true, pool, partialCount(pool, segmentCount, slotCount, withQuantiles),
+                () -> new SpeedCube(segmentCount, slotCount, withQuantiles ? new SpeedQuantiles(segmentCount, slotCount) : null),
+                (cube, line) -> {
+                    int segment = dictionary.indexOf(line[0]);
+                    if (segment < 0) {
+                        cube.skippedObservations++;
+                        return;
+                    }
+                    cube.add(segment, slots.slotOf(line[1]), Double.parseDouble(line[2]));
+                },
+                SpeedCube::merge, 0, 1, 2);
+    }
+
+    // Every partial holds the full cube, so their number is what bounds peak memory
+    private static int partialCount(ForkJoinPool pool, int segmentCount, int slotCount, boolean withQuantiles) {
+        long bytesPerCell = 8 + 4 + 4 + 4 + (withQuantiles ? 8 + 16 : 0); // Plus a small sketch store per used cell
+        long partialBytes = Math.max(1, (long) segmentCount * slotCount * bytesPerCell);
+        Runtime runtime = Runtime.getRuntime();
+        long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return (int) Math.max(1, Math.min(pool.getParallelism(), freeBytes / 2 / partialBytes));
+    }
+
+    // Throws IllegalArgumentException for a segment or slot outside the cube, leaving it unchanged
+    public void add(int segment, int slot, double speed) {
+        int cell = cellOf(segment, slot);
+        sums[cell] += speed;
+        counts[cell]++;
+        mins[cell] = Math.min(mins[cell], (float) speed);
+        maxs[cell] = Math.max(maxs[cell], (float) speed);
+        if (quantiles != null) {
+            quantiles.add(segment, slot, speed);
+        }
+    }
+
+    // Folds in an already aggregated cell, e.g. a stored daily mean; min and max see the mean
+    public void addMean(int segment, int slot, double mean, int count) {
+        int cell = cellOf(segment, slot);
+        sums[cell] += mean * count;
+        counts[cell] += count;
+        mins[cell] = Math.min(mins[cell], (float) mean);
+        maxs[cell] = Math.max(maxs[cell], (float) mean);
+    }
+
+    private int cellOf(int segment, int slot) {
+        if (segment < 0 || segment >= segmentCount || slot < 0 || slot >= slotCount) {
+            throw new IllegalArgumentException("Cell (" + segment + ", " + slot + ") is outside the "
+                    + segmentCount + " x " + slotCount + " cube");
+        }
+        return segment * slotCount + slot;
+    }
+
+    public SpeedCube merge(SpeedCube other) {
+        if (other.segmentCount != segmentCount || other.slotCount != slotCount) {
+            throw new IllegalArgumentException("Cannot merge cubes of different shapes");
+        }
+        for (int cell = 0; cell < sums.length; cell++) {
+            sums[cell] += other.sums[cell];
+            counts[cell] += other.counts[cell];
+            mins[cell] = Math.min(mins[cell], other.mins[cell]);
+            maxs[cell] = Math.max(maxs[cell], other.maxs[cell]);
+        }
+        if (quantiles != null && other.quantiles != null) {
+            quantiles.merge(other.quantiles);
+        }
+        skippedObservations += other.skippedObservations;
+        return this;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getCount(int segment, int slot) {
+        return counts[segment * slotCount + slot];
+    }
+
+    public double getSum(int segment, int slot) {
+        return sums[segment * slotCount + slot];
+    }
+
+    // NaN for empty cells
+    public double getMean(int segment, int slot) {
+        int cell = segment * slotCount + slot;
+        return counts[cell] == 0 ? Double.NaN : sums[cell] / counts[cell];
+    }
+
+    // NaN for empty cells
+    public double getMin(int segment, int slot) {
+        int cell = segment * slotCount + slot;
+        return counts[cell] == 0 ? Double.NaN : mins[cell];
+    }
+
+    // NaN for empty cells
+    public double getMax(int segment, int slot) {
+        int cell = segment * slotCount + slot;
+        return counts[cell] == 0 ? Double.NaN : maxs[cell];
+    }
+
+    // null when the cube was created without a sketch
+    public SpeedQuantiles getQuantiles() {
+        return quantiles;
+    }
+
+    public long getSkippedObservations() {
+        return skippedObservations;
+    }
+}
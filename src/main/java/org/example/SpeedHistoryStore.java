@@ -0,0 +1,337 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+// Multi-day speed history on disk: one file per day holding the mean speed and the number
+// of observations of every segment x time slot of that day. Day files are memory-mapped
+// on demand, so the history lives in the page cache rather than on the Java heap and
+// aggregates over any set of days only ever hold one result array per segment.
+//
+// Directory layout:
+//   segments.ids      : segment ids, one per line; the line number is the segment index
+//   yyyy-MM-dd.speeds : header (magic, version, segmentCount, minutesPerSlot, epochDay),
+//                       then slot-major means[slotsPerDay * segmentCount] (NaN = no data)
+//                       and counts[slotsPerDay * segmentCount], little endian
+// Slot-major cells keep one slot of all segments contiguous, which is what the map reads.
+public class SpeedHistoryStore {
+    static final int MAGIC = 0x56545348; // "VTSH"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4 + 8;
+    private static final String IDS_FILE = "segments.ids";
+    private static final String DAY_SUFFIX = ".speeds";
+    private static final int SPILL_RECORD_SIZE = 4 + 4 + 8;
+    private static final int SPILL_BUFFER_SIZE = 16 * 1024; // Per day being imported
+
+    private final Path directory;
+    private final TimeSlots slots;
+    private final SegmentDictionary dictionary = new SegmentDictionary();
+    private final Map<LocalDate, MappedByteBuffer> mappedDays = new HashMap<>();
+
+    private SpeedHistoryStore(Path directory, TimeSlots slots) {
+        this.directory = directory;
+        this.slots = slots;
+    }
+
+    // Creates the directory if needed; slots must not be by day of week, days are stored separately
+    public static SpeedHistoryStore open(Path directory, int minutesPerSlot) throws IOException {
+        SpeedHistoryStore store = new SpeedHistoryStore(directory, new TimeSlots(minutesPerSlot, false));
+        Files.createDirectories(directory);
+        Path ids = directory.resolve(IDS_FILE);
+        if (Files.exists(ids)) {
+            for (String id : Files.readAllLines(ids, StandardCharsets.UTF_8)) {
+                store.dictionary.intern(id);
+            }
+        }
+        return store;
+    }
+
+    public TimeSlots getSlots() {
+        return slots;
+    }
+
+    // Segment indexes of every stored day; intern new segments before appending a day with them
+    public SegmentDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public synchronized List<LocalDate> getDays() throws IOException {
+        List<LocalDate> days = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(DAY_SUFFIX))
+                    .forEach(name -> days.add(LocalDate.parse(name.substring(0, name.length() - DAY_SUFFIX.length()))));
+        }
+        days.sort(null);
+        return days;
+    }
+
+    // Writes (or replaces) one day; the cube is indexed by this store's dictionary and slots
+    public synchronized void appendDay(LocalDate date, SpeedCube cube) throws IOException {
+        if (cube.getSlotCount() != slots.getSlotsPerDay() || cube.getSegmentCount() > dictionary.size()) {
+            throw new IllegalArgumentException("Cube does not match the store's slots or segments");
+        }
+        writeIds();
+
+        int segmentCount = cube.getSegmentCount();
+        long cells = (long) segmentCount * slots.getSlotsPerDay();
+
+        // Filled through a mapping of the new file, so the day never passes through the heap
+        Path file = dayFile(date);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 8L * cells);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(segmentCount)
+                    .putInt(slots.getMinutesPerSlot())
+                    .putLong(date.toEpochDay());
+            FloatBuffer means = buffer.asFloatBuffer();
+            IntBuffer counts = buffer.position(countOffset(cells, 0)).asIntBuffer();
+            for (int slot = 0; slot < slots.getSlotsPerDay(); slot++) {
+                for (int segment = 0; segment < segmentCount; segment++) {
+                    means.put((float) cube.getMean(segment, slot));
+                    counts.put(cube.getCount(segment, slot));
+                }
+            }
+            buffer.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mappedDays.remove(date);
+    }
+
+    // Mean speed of one stored cell, NaN when the day, segment or observations are missing
+    public synchronized double getSpeed(LocalDate date, int segment, int slot) throws IOException {
+        ByteBuffer day = map(date);
+        if (day == null || segment >= segmentCountOf(day)) {
+            return Double.NaN;
+        }
+        return day.getFloat(meanOffset((long) slot * segmentCountOf(day) + segment));
+    }
+
+    // Observation-weighted mean per segment of one slot over the selected days in [from, to]
+    public synchronized float[] aggregateSlot(LocalDate from, LocalDate to, Predicate<LocalDate> dayFilter, int slot) throws IOException {
+        double[] sums = new double[dictionary.size()];
+        long[] counts = new long[dictionary.size()];
+        for (LocalDate date : getDays()) {
+            if (date.isBefore(from) || date.isAfter(to) || !dayFilter.test(date)) {
+                continue;
+            }
+            ByteBuffer day = map(date);
+            int segmentCount = segmentCountOf(day);
+            long cells = (long) segmentCount * slots.getSlotsPerDay();
+            long firstCell = (long) slot * segmentCount;
+            for (int segment = 0; segment < segmentCount; segment++) {
+                int count = day.getInt(countOffset(cells, firstCell + segment));
+                if (count > 0) {
+                    sums[segment] += (double) day.getFloat(meanOffset(firstCell + segment)) * count;
+                    counts[segment] += count;
+                }
+            }
+        }
+        float[] means = new float[sums.length];
+        for (int segment = 0; segment < means.length; segment++) {
+            means[segment] = counts[segment] == 0 ? Float.NaN : (float) (sums[segment] / counts[segment]);
+        }
+        return means;
+    }
+
+    // Every slot of the selected days folded into one cube; min and max are of daily means
+    public synchronized SpeedCube aggregate(LocalDate from, LocalDate to, Predicate<LocalDate> dayFilter) throws IOException {
+        SpeedCube cube = new SpeedCube(dictionary.size(), slots.getSlotsPerDay());
+        for (LocalDate date : getDays()) {
+            if (date.isBefore(from) || date.isAfter(to) || !dayFilter.test(date)) {
+                continue;
+            }
+            ByteBuffer day = map(date);
+            int segmentCount = segmentCountOf(day);
+            long cells = (long) segmentCount * slots.getSlotsPerDay();
+            for (int slot = 0; slot < slots.getSlotsPerDay(); slot++) {
+                for (int segment = 0; segment < segmentCount; segment++) {
+                    long cell = (long) slot * segmentCount + segment;
+                    int count = day.getInt(countOffset(cells, cell));
+                    if (count > 0) {
+                        cube.addMean(segment, slot, day.getFloat(meanOffset(cell)), count);
+                    }
+                }
+            }
+        }
+        return cube;
+    }
+
+    private ByteBuffer map(LocalDate date) throws IOException {
+        MappedByteBuffer day = mappedDays.get(date);
+        if (day != null) {
+            return day;
+        }
+        Path file = dayFile(date);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            day = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        day.order(ByteOrder.LITTLE_ENDIAN);
+        if (day.capacity() < HEADER_SIZE || day.getInt(0) != MAGIC || day.getInt(4) != VERSION) {
+            throw new IOException("Not a speed history day: " + file);
+        }
+        long cells = (long) day.getInt(8) * slots.getSlotsPerDay();
+        if (day.getInt(12) != slots.getMinutesPerSlot() || day.getLong(16) != date.toEpochDay()
+                || day.capacity() != HEADER_SIZE + 8 * cells) {
+            throw new IOException("Speed history day does not match the store: " + file);
+        }
+        mappedDays.put(date, day);
+        return day;
+    }
+
+    private static int segmentCountOf(ByteBuffer day) {
+        return day.getInt(8);
+    }
+
+    // Byte offsets of a cell's mean and count, in long so large days fail loudly instead of wrapping
+    private static int meanOffset(long cell) {
+        return Math.toIntExact(HEADER_SIZE + 4 * cell);
+    }
+
+    private static int countOffset(long cells, long cell) {
+        return Math.toIntExact(HEADER_SIZE + 4 * (cells + cell));
+    }
+
+    private Path dayFile(LocalDate date) {
+        return directory.resolve(date + DAY_SUFFIX);
+    }
+
+    private void writeIds() throws IOException {
+        Path ids = directory.resolve(IDS_FILE);
+        Path tmp = ids.resolveSibling(IDS_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < dictionary.size(); i++) {
+                writer.write(dictionary.idOf(i));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, ids, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Splits avg_speeds.csv by calendar day and appends every day to the store. One pass spills
+    // each row as a (segment, slot, speed) record into a temporary file of its day, then the
+    // days are built and written one at a time, so only one day's cube is ever on the heap
+    // whatever the number of days or the order of the rows.
+    public List<LocalDate> importAvgSpeeds(Path avgSpeedsFile, Path segmentsFile) throws IOException {
+        try (var rows = DelimitedRowReader.stream(segmentsFile, '|', true, 0)) {
+            rows.forEach(line -> dictionary.intern(line[0]));
+        }
+        Path spillDirectory = Files.createTempDirectory(directory, ".import");
+        try {
+            TreeMap<String, Path> spills = new TreeMap<>();
+            Map<String, DataOutputStream> writers = new HashMap<>();
+            try (DelimitedRowReader reader = DelimitedRowReader.open(avgSpeedsFile, ',', true, 0, 1, 2)) {
+                while (reader.hasNext()) {
+                    String[] line = reader.next();
+                    int segment = dictionary.indexOf(line[0]);
+                    if (segment < 0) {
+                        continue;
+                    }
+                    String day = line[1].substring(0, 10);
+                    DataOutputStream writer = writers.get(day);
+                    if (writer == null) {
+                        Path spill = spillDirectory.resolve(LocalDate.parse(day) + ".rows");
+                        writer = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill), SPILL_BUFFER_SIZE));
+                        writers.put(day, writer);
+                        spills.put(day, spill);
+                    }
+                    writer.writeInt(segment);
+                    writer.writeInt(slots.slotOf(line[1]));
+                    writer.writeDouble(Double.parseDouble(line[2]));
+                }
+            } finally {
+                for (DataOutputStream writer : writers.values()) {
+                    writer.close();
+                }
+            }
+
+            List<LocalDate> days = new ArrayList<>();
+            for (Map.Entry<String, Path> entry : spills.entrySet()) {
+                SpeedCube cube = new SpeedCube(dictionary.size(), slots.getSlotsPerDay());
+                try (DataInputStream rows = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry.getValue())))) {
+                    for (long row = Files.size(entry.getValue()) / SPILL_RECORD_SIZE; row > 0; row--) {
+                        cube.add(rows.readInt(), rows.readInt(), rows.readDouble());
+                    }
+                }
+                Files.delete(entry.getValue());
+                LocalDate date = LocalDate.parse(entry.getKey());
+                appendDay(date, cube);
+                days.add(date);
+            }
+            return days;
+        } finally {
+            try (var files = Files.list(spillDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(spillDirectory);
+        }
+    }
+
+    // import <dir> [avg_speeds.csv] [segments.csv]
+    // query <dir> <from> <to> <all|MONDAY..SUNDAY> <HH:mm> [output.csv]
+    public static void main(String[] args) {
+        try {
+            SpeedHistoryStore store = open(Path.of(args.length > 1 ? args[1] : "history"), 60);
+            if (args.length == 0 || args[0].equals("import")) {
+                Path avgSpeeds = Path.of(args.length > 2 ? args[2] : "avg_speeds.csv");
+                Path segments = Path.of(args.length > 3 ? args[3] : "segments.csv");
+                System.out.println("Imported days " + store.importAvgSpeeds(avgSpeeds, segments));
+                return;
+            }
+
+            LocalDate from = LocalDate.parse(args[2]);
+            LocalDate to = LocalDate.parse(args[3]);
+            Predicate<LocalDate> dayFilter = args[4].equalsIgnoreCase("all")
+                    ? date -> true
+                    : date -> date.getDayOfWeek() == DayOfWeek.valueOf(args[4].toUpperCase());
+            int slot = LocalTime.parse(args[5]).toSecondOfDay() / 60 / store.getSlots().getMinutesPerSlot();
+            float[] means = store.aggregateSlot(from, to, dayFilter, slot);
+
+            String outputFile = args.length > 6 ? args[6] : "history_speeds.csv";
+            try (BufferedWriter writer = Files.newBufferedWriter(Path.of(outputFile))) {
+                writer.write("SegmentId,Time,AvgSpeed\n");
+                for (int segment = 0; segment < means.length; segment++) {
+                    if (!Float.isNaN(means[segment])) {
+                        writer.write(String.format("%s,%s,%.2f\n", store.getDictionary().idOf(segment), store.getSlots().label(slot), means[segment]));
+                    }
+                }
+            }
+            System.out.println("Written speeds of " + store.getSlots().label(slot) + " to " + outputFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Mergeable speed quantile sketch for every segment x time slot. Each cell is a fixed
+// histogram of BUCKETS counters over logarithmic speed buckets (DDSketch style), so any
+// quantile is within RELATIVE_ACCURACY of the true value for speeds in
+// [MIN_SPEED, MAX_SPEED], memory per cell is bounded whatever the number of
+// observations, and merging partial sketches from other threads or days is exact.
+// A cell is allocated on its first observation and only holds the buckets between its
+// slowest and fastest one, which for one segment and time of day are usually a handful.
+//
+// File layout (little endian): magic, version, segmentCount, slotCount, buckets,
+// populatedSegments, crc32 of the rest, then per populated segment its index followed by
+// its slotCount * buckets counters.
+public class SpeedQuantiles {
+    static final int MAGIC = 0x56545351; // "VTSQ"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 6 + 8;
+
+    static final int BUCKETS = 64;
+    static final double MIN_SPEED = 0.5; // Bucket 0 holds everything slower, e.g. standing traffic
+    static final double MAX_SPEED = 256;
+    private static final double LOG_GAMMA = Math.log(MAX_SPEED / MIN_SPEED) / (BUCKETS - 1);
+    private static final double GAMMA = Math.exp(LOG_GAMMA);
+    public static final double RELATIVE_ACCURACY = (GAMMA - 1) / (GAMMA + 1); // About 5%
+
+    private final int segmentCount;
+    private final int slotCount;
+    private final int[][] cells; // [segment * slotCount + slot] = {first bucket, counts...}, null until used
+
+    public SpeedQuantiles(int segmentCount, int slotCount) {
+        this.segmentCount = segmentCount;
+        this.slotCount = slotCount;
+        this.cells = new int[Math.multiplyExact(segmentCount, slotCount)][];
+    }
+
+    static int bucketOf(double speed) {
+        if (!(speed >= MIN_SPEED)) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 1 + (int) (Math.log(speed / MIN_SPEED) / LOG_GAMMA));
+    }
+
+    // Value reported for a bucket: the point with the same relative distance to both bounds
+    static double valueOf(int bucket) {
+        if (bucket == 0) {
+            return MIN_SPEED / 2;
+        }
+        return MIN_SPEED * Math.exp((bucket - 1) * LOG_GAMMA) * 2 * GAMMA / (GAMMA + 1);
+    }
+
+    public void add(int segment, int slot, double speed) {
+        int bucket = bucketOf(speed);
+        int[] store = covering(segment * slotCount + slot, bucket, bucket);
+        store[1 + bucket - store[0]]++;
+    }
+
+    // Adds the other sketch's observations of the cell to this one and empties the cell there
+    void moveCell(SpeedQuantiles from, int segment, int slot) {
+        int cell = segment * slotCount + slot;
+        int[] theirs = from.cells[cell];
+        if (theirs == null) {
+            return;
+        }
+        from.cells[cell] = null;
+        int[] ours = covering(cell, theirs[0], theirs[0] + theirs.length - 2);
+        for (int i = 1; i < theirs.length; i++) {
+            ours[i + theirs[0] - ours[0]] += theirs[i];
+        }
+    }
+
+    public SpeedQuantiles merge(SpeedQuantiles other) {
+        if (other.segmentCount != segmentCount || other.slotCount != slotCount) {
+            throw new IllegalArgumentException("Cannot merge sketches of different shapes");
+        }
+        for (int cell = 0; cell < cells.length; cell++) {
+            int[] theirs = other.cells[cell];
+            if (theirs == null) {
+                continue;
+            }
+            if (cells[cell] == null) {
+                cells[cell] = theirs.clone();
+                continue;
+            }
+            int[] ours = covering(cell, theirs[0], theirs[0] + theirs.length - 2);
+            for (int i = 1; i < theirs.length; i++) {
+                ours[i + theirs[0] - ours[0]] += theirs[i];
+            }
+        }
+        return this;
+    }
+
+    // The cell's store, widened so it has counters for the buckets first to last
+    private int[] covering(int cell, int first, int last) {
+        int[] store = cells[cell];
+        if (store == null) {
+            store = new int[2 + last - first];
+            store[0] = first;
+            return cells[cell] = store;
+        }
+        int storeLast = store[0] + store.length - 2;
+        if (first >= store[0] && last <= storeLast) {
+            return store;
+        }
+        int newFirst = Math.min(first, store[0]);
+        int[] widened = new int[2 + Math.max(last, storeLast) - newFirst];
+        widened[0] = newFirst;
+        System.arraycopy(store, 1, widened, 1 + store[0] - newFirst, store.length - 1);
+        return cells[cell] = widened;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public long getCount(int segment, int slot) {
+        int[] store = cells[segment * slotCount + slot];
+        if (store == null) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 1; i < store.length; i++) {
+            total += store[i];
+        }
+        return total;
+    }
+
+    // quantile in [0, 1], e.g. 0.85 for the P85 speed; NaN for empty cells
+    public double getQuantile(int segment, int slot, double quantile) {
+        long total = getCount(segment, slot);
+        if (total == 0) {
+            return Double.NaN;
+        }
+        int[] store = cells[segment * slotCount + slot];
+        long rank = (long) (Math.max(0, Math.min(1, quantile)) * (total - 1));
+        long seen = 0;
+        for (int i = 1; i < store.length; i++) {
+            seen += store[i];
+            if (seen > rank) {
+                return valueOf(store[0] + i - 1);
+            }
+        }
+        return valueOf(store[0] + store.length - 2);
+    }
+
+    public void write(Path path) throws IOException {
+        int populated = 0;
+        for (int segment = 0; segment < segmentCount; segment++) {
+            populated += isPopulated(segment) ? 1 : 0;
+        }
+        int[] counts = new int[slotCount * BUCKETS];
+        ByteBuffer row = ByteBuffer.allocate(4 + 4 * slotCount * BUCKETS).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+
+        // Write next to the target and rename, so a crash never leaves a half-written file
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            for (int segment = 0; segment < segmentCount; segment++) {
+                if (!isPopulated(segment)) {
+                    continue;
+                }
+                // On disk every populated segment has all slots x BUCKETS counters
+                Arrays.fill(counts, 0);
+                for (int slot = 0; slot < slotCount; slot++) {
+                    int[] store = cells[segment * slotCount + slot];
+                    if (store != null) {
+                        System.arraycopy(store, 1, counts, slot * BUCKETS + store[0], store.length - 1);
+                    }
+                }
+                row.clear();
+                row.putInt(segment);
+                row.asIntBuffer().put(counts);
+                row.position(row.capacity());
+                row.flip();
+                crc.update(row.duplicate());
+                while (row.hasRemaining()) {
+                    channel.write(row);
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(segmentCount)
+                    .putInt(slotCount)
+                    .putInt(BUCKETS)
+                    .putInt(populated)
+                    .putLong(crc.getValue())
+                    .flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static SpeedQuantiles read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a quantile sketch file: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sketch version " + version + " in " + path);
+            }
+            int segmentCount = buffer.getInt();
+            int slotCount = buffer.getInt();
+            int buckets = buffer.getInt();
+            int populated = buffer.getInt();
+            long expectedCrc = buffer.getLong();
+            int rowSize = 4 + 4 * slotCount * buckets;
+            if (buckets != BUCKETS || populated < 0 || populated > segmentCount || (long) populated * rowSize != buffer.remaining()) {
+                throw new IOException("Corrupt sketch header in " + path);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != expectedCrc) {
+                throw new IOException("Sketch checksum mismatch in " + path);
+            }
+
+            SpeedQuantiles quantiles = new SpeedQuantiles(segmentCount, slotCount);
+            for (int i = 0; i < populated; i++) {
+                int segment = buffer.getInt();
+                if (segment < 0 || segment >= segmentCount) {
+                    throw new IOException("Corrupt sketch row in " + path);
+                }
+                for (int slot = 0; slot < slotCount; slot++) {
+                    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                        int count = buffer.getInt();
+                        if (count != 0) {
+                            int[] store = quantiles.covering(segment * slotCount + slot, bucket, bucket);
+                            store[1 + bucket - store[0]] += count;
+                        }
+                    }
+                }
+            }
+            return quantiles;
+        }
+    }
+
+    private boolean isPopulated(int segment) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (cells[segment * slotCount + slot] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
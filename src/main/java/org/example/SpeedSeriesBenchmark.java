@@ -0,0 +1,119 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Encodes the speeds of avg_speeds.csv as one CompressedSpeedSeries per segment, checks that
+// every point decodes back, and reports bytes per point and streaming decode throughput.
+public class SpeedSeriesBenchmark {
+    private static final int DECODE_ROUNDS = 20;
+
+    public static void main(String[] args) {
+        try {
+            Path avgSpeedsFile = Path.of(args.length > 0 ? args[0] : "avg_speeds.csv");
+
+            // Group the observations per segment as (epoch second, speed) pairs
+            SegmentDictionary dictionary = new SegmentDictionary();
+            List<long[]> timesBySegment = new ArrayList<>();
+            List<double[]> speedsBySegment = new ArrayList<>();
+            int[] sizes = new int[0];
+            long points = 0;
+            try (var rows = DelimitedRowReader.stream(avgSpeedsFile, ',', true, 0, 1, 2)) {
+                for (String[] line : (Iterable<String[]>) rows::iterator) {
+                    int segment = dictionary.intern(line[0]);
+                    if (segment == timesBySegment.size()) {
+                        timesBySegment.add(new long[16]);
+                        speedsBySegment.add(new double[16]);
+                        sizes = Arrays.copyOf(sizes, segment + 1);
+                    }
+                    int size = sizes[segment]++;
+                    if (size == timesBySegment.get(segment).length) {
+                        timesBySegment.set(segment, Arrays.copyOf(timesBySegment.get(segment), size * 2));
+                        speedsBySegment.set(segment, Arrays.copyOf(speedsBySegment.get(segment), size * 2));
+                    }
+                    timesBySegment.get(segment)[size] = TimeSlots.epochSecondOf(line[1]);
+                    speedsBySegment.get(segment)[size] = Double.parseDouble(line[2]);
+                    points++;
+                }
+            }
+
+            // Series must be in time order
+            long encodeStart = System.nanoTime();
+            CompressedSpeedSeries[] series = new CompressedSpeedSeries[dictionary.size()];
+            long encodedBytes = 0;
+            for (int segment = 0; segment < series.length; segment++) {
+                sortByTime(timesBySegment.get(segment), speedsBySegment.get(segment), sizes[segment]);
+                long[] times = timesBySegment.get(segment);
+                double[] speeds = speedsBySegment.get(segment);
+                CompressedSpeedSeries.Builder builder = new CompressedSpeedSeries.Builder();
+                for (int i = 0; i < sizes[segment]; i++) {
+                    builder.add(times[i], speeds[i]);
+                }
+                series[segment] = builder.build();
+                encodedBytes += series[segment].getSizeInBytes();
+            }
+            long encodeNanos = System.nanoTime() - encodeStart;
+
+            // Every point must come back, speeds up to the quantization step
+            long[] blockTimes = new long[CompressedSpeedSeries.BLOCK_POINTS];
+            double[] blockSpeeds = new double[CompressedSpeedSeries.BLOCK_POINTS];
+            long mismatches = 0;
+            for (int segment = 0; segment < series.length; segment++) {
+                long[] times = timesBySegment.get(segment);
+                double[] speeds = speedsBySegment.get(segment);
+                int decoded = 0;
+                for (int block = 0; block < series[segment].getBlockCount(); block++) {
+                    int count = series[segment].decodeBlock(block, blockTimes, blockSpeeds);
+                    for (int i = 0; i < count; i++, decoded++) {
+                        double expected = (double) Math.round(speeds[decoded] * CompressedSpeedSeries.SPEED_SCALE) / CompressedSpeedSeries.SPEED_SCALE;
+                        mismatches += blockTimes[i] == times[decoded] && blockSpeeds[i] == expected ? 0 : 1;
+                    }
+                }
+                mismatches += Math.abs(decoded - sizes[segment]);
+            }
+
+            // Streaming decode of every block, after one warm-up round; the checksum keeps the
+            // decoded speeds live
+            double checksum = 0;
+            long decodeNanos = 0;
+            for (int round = 0; round <= DECODE_ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (CompressedSpeedSeries s : series) {
+                    for (int block = 0; block < s.getBlockCount(); block++) {
+                        int count = s.decodeBlock(block, blockTimes, blockSpeeds);
+                        checksum += blockSpeeds[count - 1];
+                    }
+                }
+                if (round > 0) {
+                    decodeNanos += System.nanoTime() - start;
+                }
+            }
+
+            System.out.printf("Points:            %d in %d series (%d mismatches after decode)%n", points, series.length, mismatches);
+            System.out.printf("Encoded size:      %d bytes, %.2f bytes/point (16 for raw long + double)%n",
+                    encodedBytes, (double) encodedBytes / points);
+            System.out.printf("Sort + encode:     %.1f M points/s%n", points / (encodeNanos / 1e3));
+            System.out.printf("Decode:            %.1f M points/s (checksum %.1f)%n",
+                    points * DECODE_ROUNDS / (decodeNanos / 1e3), checksum);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void sortByTime(long[] times, double[] speeds, int size) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        long[] sortedTimes = times.clone();
+        double[] sortedSpeeds = speeds.clone();
+        for (int i = 0; i < size; i++) {
+            times[i] = sortedTimes[order[i]];
+            speeds[i] = sortedSpeeds[order[i]];
+        }
+    }
+}
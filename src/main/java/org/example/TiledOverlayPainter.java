@@ -0,0 +1,136 @@
+package org.example;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.painter.Painter;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Overlay painter that blits the cached tiles of the current time slot. Tiles still being
+// rendered are drawn directly by the TrafficOverlayPainter, clipped to their area, so the
+// overlay never blinks while the cache fills up.
+// Switching slots happens off the EDT: requests arriving within DEBOUNCE_MILLIS coalesce into
+// one, renders of slots the user has moved past are cancelled, and the shown slot is swapped
+// only once its visible tiles are ready. Neighbouring slots are then prefetched.
+public class TiledOverlayPainter implements Painter<JXMapViewer> {
+    private static final long DEBOUNCE_MILLIS = 40;
+    private static final int PREFETCH_SLOTS = 1; // On each side of the shown slot
+
+    private final OverlayTileCache cache;
+    private final TrafficOverlayPainter overlay;
+    private final TimeSliceIndex timeSlices;
+    private final ScheduledExecutorService switcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "overlay-slot-switcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<SlotRequest> requested = new AtomicReference<>();
+    private final AtomicBoolean switchScheduled = new AtomicBoolean();
+    private volatile int slot;
+    private int paintedZoom = -1; // EDT only
+
+    public TiledOverlayPainter(OverlayTileCache cache, TrafficOverlayPainter overlay, TimeSliceIndex timeSlices, int slot) {
+        this.cache = cache;
+        this.overlay = overlay;
+        this.timeSlices = timeSlices;
+        this.slot = slot;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    // Shows the slot without waiting for its tiles
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    // Called on the EDT, e.g. for every slider change; returns immediately
+    public void showSlot(int slot, JXMapViewer map) {
+        requested.set(new SlotRequest(slot, map, map.getZoom(), map.getViewportBounds()));
+        if (!switchScheduled.getAndSet(true)) {
+            switcher.schedule(this::switchSlot, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void switchSlot() {
+        switchScheduled.set(false);
+        SlotRequest request = requested.get();
+        int target = request.slot;
+        timeSlices.getSlice(target); // Built here rather than on the EDT
+        int shownSlot = slot;
+        cache.cancelRenders(request.zoom, s -> s == shownSlot || Math.abs(s - target) <= PREFETCH_SLOTS);
+        cache.request(request.zoom, request.viewport, target).whenComplete((ignored, error) -> {
+            if (requested.get() != request) {
+                return; // Superseded, a newer switch follows
+            }
+            slot = target;
+            request.map.repaint();
+            for (int neighbour = target - PREFETCH_SLOTS; neighbour <= target + PREFETCH_SLOTS; neighbour++) {
+                if (neighbour != target && neighbour >= 0 && neighbour < timeSlices.getSlotCount()) {
+                    cache.request(request.zoom, request.viewport, neighbour);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
+        TileFactoryInfo info = map.getTileFactory().getInfo();
+        int zoom = map.getZoom();
+        int shownSlot = slot;
+        Rectangle viewport = map.getViewportBounds();
+        if (zoom != paintedZoom) { // Tiles of the zoom just left are no longer needed
+            cache.cancelRenders(zoom, s -> true);
+            paintedZoom = zoom;
+        }
+        int tileSize = info.getTileSize(zoom);
+        int tilesAcross = info.getMapWidthInTilesAtZoom(zoom);
+
+        Area missing = new Area();
+        int minTileX = Math.max(0, Math.floorDiv(viewport.x, tileSize));
+        int minTileY = Math.max(0, Math.floorDiv(viewport.y, tileSize));
+        int maxTileX = Math.min(tilesAcross - 1, Math.floorDiv(viewport.x + viewport.width - 1, tileSize));
+        int maxTileY = Math.min(tilesAcross - 1, Math.floorDiv(viewport.y + viewport.height - 1, tileSize));
+        for (int y = minTileY; y <= maxTileY; y++) {
+            for (int x = minTileX; x <= maxTileX; x++) {
+                int left = x * tileSize - viewport.x;
+                int top = y * tileSize - viewport.y;
+                BufferedImage tile = cache.getTile(zoom, x, y, shownSlot);
+                if (tile == null) {
+                    missing.add(new Area(new Rectangle(left, top, tileSize, tileSize)));
+                } else if (tile != OverlayTileCache.EMPTY) {
+                    g.drawImage(tile, left, top, null);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.clip(missing);
+            overlay.paint(g2, info, zoom, viewport, timeSlices.getSlice(shownSlot));
+            g2.dispose();
+        }
+    }
+
+    private static class SlotRequest {
+        final int slot;
+        final JXMapViewer map;
+        final int zoom;
+        final Rectangle viewport;
+
+        SlotRequest(int slot, JXMapViewer map, int zoom, Rectangle viewport) {
+            this.slot = slot;
+            this.map = map;
+            this.zoom = zoom;
+            this.viewport = viewport;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.example;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.painter.Painter;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Time-lapse playback of the overlay, looping over a range of time slots. A ticker thread
+// advances the position by wall-clock time at the given frame rate and asks for a repaint;
+// painting only recolours the overlay's cached paths, blending between the two slots around
+// the position when interpolating. A tick arriving while the previous frame is still not
+// painted is dropped, so a slow display skips frames instead of slowing the replay down.
+public class TimeLapsePlayer implements Painter<JXMapViewer> {
+    public interface Listener {
+        // Called on the EDT after every painted frame
+        void frameShown(int slot, double achievedFps, long droppedFrames);
+    }
+
+    private final JXMapViewer map;
+    private final TrafficOverlayPainter overlay;
+    private final TimeSliceIndex timeSlices;
+    private final int firstSlot;
+    private final int slotCount;
+    private final double framesPerSecond;
+    private final double slotsPerSecond;
+    private final boolean interpolate;
+    private final Listener listener;
+    private final AtomicBoolean framePending = new AtomicBoolean();
+    private final TrafficOverlayPainter.PathCache paths = new TrafficOverlayPainter.PathCache();
+    private ScheduledExecutorService ticker;
+    private volatile double position; // Slots after firstSlot
+    private volatile long droppedFrames;
+    private long startNanos;
+    private double startPosition;
+    private long windowStartNanos;
+    private int windowFrames;
+    private volatile double achievedFps;
+
+    public TimeLapsePlayer(JXMapViewer map, TrafficOverlayPainter overlay, TimeSliceIndex timeSlices,
+                           int firstSlot, int lastSlot, double framesPerSecond, double slotsPerSecond,
+                           boolean interpolate, Listener listener) {
+        if (framesPerSecond <= 0 || slotsPerSecond <= 0 || lastSlot < firstSlot) {
+            throw new IllegalArgumentException("Invalid playback settings");
+        }
+        this.map = map;
+        this.overlay = overlay;
+        this.timeSlices = timeSlices;
+        this.firstSlot = firstSlot;
+        this.slotCount = lastSlot - firstSlot + 1;
+        this.framesPerSecond = framesPerSecond;
+        this.slotsPerSecond = slotsPerSecond;
+        this.interpolate = interpolate;
+        this.listener = listener;
+    }
+
+    public synchronized boolean isPlaying() {
+        return ticker != null;
+    }
+
+    // Starts playing from the slot, the first frame follows once all slices are built
+    public synchronized void start(int slot) {
+        if (ticker != null) {
+            return;
+        }
+        position = Math.floorMod(slot - firstSlot, slotCount);
+        framePending.set(false);
+        droppedFrames = 0;
+        achievedFps = 0;
+        windowFrames = 0;
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "time-lapse-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.execute(() -> {
+            for (int offset = 0; offset < slotCount; offset++) {
+                timeSlices.getSlice(firstSlot + offset);
+            }
+            startPosition = position;
+            startNanos = System.nanoTime();
+        });
+        ticker.scheduleAtFixedRate(this::tick, 0, Math.round(1e9 / framesPerSecond), TimeUnit.NANOSECONDS);
+    }
+
+    // Stops playing, returns the slot shown last
+    public synchronized int stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+        return firstSlot + (int) position;
+    }
+
+    public double getAchievedFps() {
+        return achievedFps;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private void tick() {
+        if (framePending.getAndSet(true)) {
+            droppedFrames++;
+            return;
+        }
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        position = (startPosition + elapsed * slotsPerSecond) % slotCount;
+        map.repaint();
+    }
+
+    @Override
+    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
+        double shown = position;
+        int offset = (int) shown;
+        int slot = firstSlot + offset;
+        int next = firstSlot + (offset + 1) % slotCount;
+        float fraction = interpolate ? (float) (shown - offset) : 0;
+        overlay.paint(g, map.getTileFactory().getInfo(), map.getZoom(), map.getViewportBounds(),
+                timeSlices.getSlice(slot), timeSlices.getSlice(next), fraction, paths);
+
+        if (!framePending.getAndSet(false)) {
+            return; // Repainted for another reason, e.g. panning
+        }
+        long now = System.nanoTime();
+        if (windowFrames == 0) {
+            windowStartNanos = now;
+        } else if (now - windowStartNanos >= 1_000_000_000L) {
+            achievedFps = windowFrames * 1e9 / (now - windowStartNanos);
+            windowStartNanos = now;
+            windowFrames = 0;
+        }
+        windowFrames++;
+        double fps = achievedFps;
+        long dropped = droppedFrames;
+        SwingUtilities.invokeLater(() -> {
+            if (isPlaying()) { // Paused meanwhile, the slider must stay where stop() left it
+                listener.frameShown(slot, fps, dropped);
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import java.awt.*;
+
+// Speed class of every segment per time slot, one dense byte array per slot indexed by
+// segment. Slices are classified on first use and cached, so moving the time slider swaps
+// one array instead of searching the speed list for every segment. The classified speed
+// is the snapshot mean or any percentile of a SpeedQuantiles sketch. Live changes of the
+// source go through update(), which replaces the built slices they touch.
+public class TimeSliceIndex {
+    public static final byte NO_DATA = 0;
+    public static final byte SLOW = 1;
+    public static final byte MEDIUM = 2;
+    public static final byte FAST = 3;
+    public static final int CLASS_COUNT = 4;
+
+    // Indexed by class, null for NO_DATA
+    private static final Color[] COLORS = {null, Color.RED, Color.YELLOW, Color.GREEN};
+
+    public interface SlotSpeeds {
+        // NaN when the segment has no data in the slot
+        double getSpeed(int segment, int slot);
+    }
+
+    private final int segmentCount;
+    private final SlotSpeeds speeds;
+    private final byte[][] slices;
+
+    public TimeSliceIndex(TrafficSnapshot snapshot) {
+        this(snapshot.getSegmentCount(), snapshot.getSlots().getSlotCount(), snapshot::getSpeed);
+    }
+
+    public TimeSliceIndex(SpeedQuantiles quantiles, double quantile) {
+        this(quantiles.getSegmentCount(), quantiles.getSlotCount(),
+                (segment, slot) -> quantiles.getQuantile(segment, slot, quantile));
+    }
+
+    public TimeSliceIndex(int segmentCount, int slotCount, SlotSpeeds speeds) {
+        this.segmentCount = segmentCount;
+        this.speeds = speeds;
+        this.slices = new byte[slotCount][];
+    }
+
+    public static byte classify(double speed) {
+        if (Double.isNaN(speed)) {
+            return NO_DATA;
+        } else if (speed < 3) {
+            return SLOW;
+        } else if (speed < 6) {
+            return MEDIUM;
+        } else {
+            return FAST;
+        }
+    }
+
+    public static Color getColor(byte speedClass) {
+        return COLORS[speedClass];
+    }
+
+    public int getSlotCount() {
+        return slices.length;
+    }
+
+    // Must not be modified by the caller
+    public synchronized byte[] getSlice(int slot) {
+        byte[] slice = slices[slot];
+        if (slice == null) {
+            slice = new byte[segmentCount];
+            for (int segment = 0; segment < slice.length; segment++) {
+                slice[segment] = classify(speeds.getSpeed(segment, slot));
+            }
+            slices[slot] = slice;
+        }
+        return slice;
+    }
+
+    // Applies a change of the source and reclassifies the cells (segment * slotCount + slot) it
+    // touched. The change runs under the index's lock, so no slice is built from a half-changed
+    // source, and built slices are replaced by updated copies instead of changing under the
+    // painters reading them.
+    public synchronized void update(int[] cells, Runnable change) {
+        change.run();
+        int slotCount = slices.length;
+        byte[][] copies = new byte[slotCount][];
+        for (int cell : cells) {
+            int segment = cell / slotCount;
+            int slot = cell % slotCount;
+            if (slices[slot] == null) {
+                continue;
+            }
+            if (copies[slot] == null) {
+                copies[slot] = slices[slot].clone();
+                slices[slot] = copies[slot];
+            }
+            copies[slot][segment] = classify(speeds.getSpeed(segment, slot));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.example;
+
+import java.time.DayOfWeek;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
+// Time bucketing for speed observations: fixed-length slots of the day, optionally crossed
+// with the day of week (Monday first). Timestamps are turned into slot indexes once at ingest
+// by reading the digits of "yyyy-MM-dd HH:mm:ss" in place; everything after works on ints.
+public class TimeSlots {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final int minutesPerSlot;
+    private final boolean byDayOfWeek;
+    private final int slotsPerDay;
+
+    public TimeSlots(int minutesPerSlot, boolean byDayOfWeek) {
+        if (minutesPerSlot <= 0 || MINUTES_PER_DAY % minutesPerSlot != 0) {
+            throw new IllegalArgumentException("Slot length must divide a day evenly: " + minutesPerSlot);
+        }
+        this.minutesPerSlot = minutesPerSlot;
+        this.byDayOfWeek = byDayOfWeek;
+        this.slotsPerDay = MINUTES_PER_DAY / minutesPerSlot;
+    }
+
+    public static TimeSlots hourly() {
+        return new TimeSlots(60, false);
+    }
+
+    public int getMinutesPerSlot() {
+        return minutesPerSlot;
+    }
+
+    public boolean isByDayOfWeek() {
+        return byDayOfWeek;
+    }
+
+    public int getSlotsPerDay() {
+        return slotsPerDay;
+    }
+
+    public int getSlotCount() {
+        return byDayOfWeek ? slotsPerDay * 7 : slotsPerDay;
+    }
+
+    // Throws IllegalArgumentException unless the timestamp starts with "yyyy-MM-dd HH:mm"
+    public int slotOf(CharSequence timestamp) {
+        checkLayout(timestamp, 16);
+        int minuteOfDay = field(timestamp, 11, 23) * 60 + field(timestamp, 14, 59);
+        int slot = minuteOfDay / minutesPerSlot;
+        if (byDayOfWeek) {
+            slot += dayOfWeek(year(timestamp), month(timestamp), day(timestamp)) * slotsPerDay;
+        }
+        return slot;
+    }
+
+    public int getStartMinuteOfDay(int slot) {
+        return (slot % slotsPerDay) * minutesPerSlot;
+    }
+
+    // "HH:mm:ss", prefixed with the day ("Tue 08:15:00") when bucketing by day of week
+    public String label(int slot) {
+        int minute = getStartMinuteOfDay(slot);
+        String time = String.format("%02d:%02d:00", minute / 60, minute % 60);
+        if (!byDayOfWeek) {
+            return time;
+        }
+        return DayOfWeek.of(slot / slotsPerDay + 1).getDisplayName(TextStyle.SHORT, Locale.ENGLISH) + " " + time;
+    }
+
+    // "HH:mm", with the day prefix when bucketing by day of week
+    public String shortLabel(int slot) {
+        String label = label(slot);
+        return label.substring(0, label.length() - 3);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TimeSlots)) {
+            return false;
+        }
+        TimeSlots other = (TimeSlots) o;
+        return minutesPerSlot == other.minutesPerSlot && byDayOfWeek == other.byDayOfWeek;
+    }
+
+    @Override
+    public int hashCode() {
+        return minutesPerSlot * 2 + (byDayOfWeek ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "TimeSlots{" +
+                "minutesPerSlot=" + minutesPerSlot +
+                ", byDayOfWeek=" + byDayOfWeek +
+                '}';
+    }
+
+    // Seconds since 1970-01-01T00:00 of a "yyyy-MM-dd HH:mm:ss" timestamp, read in place
+    static long epochSecondOf(CharSequence timestamp) {
+        checkLayout(timestamp, 19);
+        long days = daysFromCivil(year(timestamp), month(timestamp), day(timestamp));
+        return days * 86400 + field(timestamp, 11, 23) * 3600 + field(timestamp, 14, 59) * 60 + field(timestamp, 17, 59);
+    }
+
+    private static void checkLayout(CharSequence timestamp, int length) {
+        if (timestamp.length() < length || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-'
+                || timestamp.charAt(10) != ' ' || timestamp.charAt(13) != ':' || (length > 16 && timestamp.charAt(16) != ':')) {
+            throw invalid(timestamp);
+        }
+    }
+
+    private static int year(CharSequence timestamp) {
+        return field(timestamp, 0, 99) * 100 + field(timestamp, 2, 99);
+    }
+
+    private static int month(CharSequence timestamp) {
+        int month = field(timestamp, 5, 12);
+        if (month == 0) {
+            throw invalid(timestamp);
+        }
+        return month;
+    }
+
+    private static int day(CharSequence timestamp) {
+        int day = field(timestamp, 8, 31);
+        if (day == 0) {
+            throw invalid(timestamp);
+        }
+        return day;
+    }
+
+    // The two digits at the position, at most max
+    private static int field(CharSequence timestamp, int at, int max) {
+        char tens = timestamp.charAt(at);
+        char ones = timestamp.charAt(at + 1);
+        if (tens < '0' || tens > '9' || ones < '0' || ones > '9') {
+            throw invalid(timestamp);
+        }
+        int value = (tens - '0') * 10 + (ones - '0');
+        if (value > max) {
+            throw invalid(timestamp);
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException invalid(CharSequence timestamp) {
+        return new IllegalArgumentException("Expected a \"yyyy-MM-dd HH:mm:ss\" timestamp: " + timestamp);
+    }
+
+    // 0 = Monday ... 6 = Sunday, from days since 1970-01-01 (a Thursday)
+    static int dayOfWeek(int year, int month, int day) {
+        long days = daysFromCivil(year, month, day);
+        return (int) Math.floorMod(days + 3, 7L);
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,227 @@
+package org.example;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.painter.Painter;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.stream.IntStream;
+
+// Single overlay painter for all segments. The R-tree picks the segments intersecting the
+// viewport, the current TimeSliceIndex slice gives each its speed class, and every class is
+// drawn as one batched path. World-pixel coordinates of all vertices are projected once per
+// zoom level and kept for the last few zooms used, so tile renders still running at the
+// previous zoom do not evict the current one; only the pyramid's vertices for that zoom are
+// added to the paths.
+public class TrafficOverlayPainter implements Painter<JXMapViewer> {
+    private static final int MARGIN_PIXELS = 2; // Stroke width, so edge-touching lines are not clipped
+    private static final int CACHED_PROJECTIONS = 3; // E.g. the zoom shown and the one just left
+    private static final BasicStroke STROKE = new BasicStroke(2);
+    private static final byte[] DRAW_ORDER = {
+            TimeSliceIndex.NO_DATA, TimeSliceIndex.FAST, TimeSliceIndex.MEDIUM, TimeSliceIndex.SLOW};
+
+    private final SegmentRTree index;
+    private final SimplificationPyramid pyramid;
+    private final double[] normalized; // Web Mercator x, y per vertex in map units
+    private final LinkedHashMap<Integer, Projection> projections = new LinkedHashMap<>(8, 0.75f, true);
+    private volatile byte[] slice;
+    private final PathCache defaultPaths = new PathCache();
+
+    public TrafficOverlayPainter(SegmentRTree index, SimplificationPyramid pyramid, byte[] slice) {
+        this.index = index;
+        this.pyramid = pyramid;
+        this.slice = slice;
+
+        PolylineStore polylines = pyramid.getPolylines();
+        this.normalized = new double[2 * polylines.getTotalVertexCount()];
+        IntStream.range(0, polylines.getTotalVertexCount()).parallel().forEach(v -> {
+            normalized[2 * v] = WebMercator.x(polylines.getLongitude(v));
+            normalized[2 * v + 1] = WebMercator.y(polylines.getLatitude(v));
+        });
+    }
+
+    public void setSlice(byte[] slice) {
+        this.slice = slice;
+    }
+
+    @Override
+    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
+        paint(g, map.getTileFactory().getInfo(), map.getZoom(), map.getViewportBounds(), slice);
+    }
+
+    // Draws the segments of the slice intersecting the viewport (world pixels at the zoom) with
+    // the viewport's top left corner at (0, 0) of g
+    public void paint(Graphics2D g, TileFactoryInfo info, int zoom, Rectangle viewport, byte[] classes) {
+        paint(g, info, zoom, viewport, classes, classes, 0, defaultPaths);
+    }
+
+    public void paint(Graphics2D g, TileFactoryInfo info, int zoom, Rectangle viewport, byte[] classes, PathCache cache) {
+        paint(g, info, zoom, viewport, classes, classes, 0, cache);
+    }
+
+    public void paint(Graphics2D g, TileFactoryInfo info, int zoom, Rectangle viewport,
+                      byte[] from, byte[] to, float fraction) {
+        paint(g, info, zoom, viewport, from, to, fraction, defaultPaths);
+    }
+
+    // Draws every segment in the colour blended from its class in one slice to its class in the
+    // other, fraction 0 being the first slice. Segments are batched per pair of classes, and the
+    // paths are kept in the cache between calls with the same zoom, viewport and slices, so
+    // animating the fraction only recolours them.
+    public void paint(Graphics2D g, TileFactoryInfo info, int zoom, Rectangle viewport,
+                      byte[] from, byte[] to, float fraction, PathCache cache) {
+        Path2D.Float[] paths = paths(info, zoom, viewport, from, to, cache);
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setStroke(STROKE);
+        // By the class of the nearer slice, so congestion is drawn on top
+        boolean byTo = fraction >= 0.5f;
+        for (byte major : DRAW_ORDER) {
+            for (byte minor : DRAW_ORDER) {
+                int fromClass = byTo ? minor : major;
+                int toClass = byTo ? major : minor;
+                Path2D.Float path = paths[fromClass * TimeSliceIndex.CLASS_COUNT + toClass];
+                if (path != null) {
+                    g2.setColor(blend((byte) fromClass, (byte) toClass, fraction));
+                    g2.draw(path);
+                }
+            }
+        }
+        g2.dispose();
+    }
+
+    private Path2D.Float[] paths(TileFactoryInfo info, int zoom, Rectangle viewport, byte[] from, byte[] to, PathCache cache) {
+        Projection projected = project(info, zoom);
+        CachedPaths cached = cache.paths;
+        if (cached != null && cached.projection == projected
+                && cached.from == from && cached.to == to && cached.viewport.equals(viewport)) {
+            return cached.paths;
+        }
+
+        double mapWidth = projected.mapWidth;
+        Path2D.Float[] paths = new Path2D.Float[TimeSliceIndex.CLASS_COUNT * TimeSliceIndex.CLASS_COUNT];
+        PolylineStore polylines = pyramid.getPolylines();
+        double[] xy = projected.xy;
+        index.query(
+                (viewport.getMinX() - MARGIN_PIXELS) / mapWidth,
+                (viewport.getMinY() - MARGIN_PIXELS) / mapWidth,
+                (viewport.getMaxX() + MARGIN_PIXELS) / mapWidth,
+                (viewport.getMaxY() + MARGIN_PIXELS) / mapWidth,
+                segment -> {
+                    int pair = from[segment] * TimeSliceIndex.CLASS_COUNT + to[segment];
+                    if (pair == 0) { // No data in either slice
+                        return;
+                    }
+                    if (paths[pair] == null) {
+                        paths[pair] = new Path2D.Float();
+                    }
+                    // Relative to the viewport, which keeps float coordinates exact enough
+                    Path2D.Float path = paths[pair];
+                    boolean first = true;
+                    for (int v = polylines.getStart(segment); v < polylines.getEnd(segment); v++) {
+                        if (!pyramid.isVisible(v, zoom)) {
+                            continue;
+                        }
+                        float x = (float) (xy[2 * v] - viewport.x);
+                        float y = (float) (xy[2 * v + 1] - viewport.y);
+                        if (first) {
+                            path.moveTo(x, y);
+                            first = false;
+                        } else {
+                            path.lineTo(x, y);
+                        }
+                    }
+                });
+        cache.paths = new CachedPaths(projected, new Rectangle(viewport), from, to, paths);
+        return paths;
+    }
+
+    // Segments without data on one side fade in or out
+    private static Color blend(byte fromClass, byte toClass, float fraction) {
+        Color from = TimeSliceIndex.getColor(fromClass == TimeSliceIndex.NO_DATA ? toClass : fromClass);
+        Color to = TimeSliceIndex.getColor(toClass == TimeSliceIndex.NO_DATA ? fromClass : toClass);
+        int fromAlpha = fromClass == TimeSliceIndex.NO_DATA ? 0 : 255;
+        int toAlpha = toClass == TimeSliceIndex.NO_DATA ? 0 : 255;
+        if (fraction <= 0 || fromClass == toClass) {
+            return fromAlpha == 255 ? from : new Color(from.getRed(), from.getGreen(), from.getBlue(), fromAlpha);
+        }
+        return new Color(
+                Math.round(from.getRed() + (to.getRed() - from.getRed()) * fraction),
+                Math.round(from.getGreen() + (to.getGreen() - from.getGreen()) * fraction),
+                Math.round(from.getBlue() + (to.getBlue() - from.getBlue()) * fraction),
+                Math.round(fromAlpha + (toAlpha - fromAlpha) * fraction));
+    }
+
+    // Whether anything would be drawn in the viewport, without projecting or drawing
+    public boolean intersects(TileFactoryInfo info, int zoom, Rectangle viewport, byte[] classes) {
+        double mapWidth = WebMercator.getMapWidthInPixels(info, zoom);
+        boolean[] found = new boolean[1];
+        index.query(
+                (viewport.getMinX() - MARGIN_PIXELS) / mapWidth,
+                (viewport.getMinY() - MARGIN_PIXELS) / mapWidth,
+                (viewport.getMaxX() + MARGIN_PIXELS) / mapWidth,
+                (viewport.getMaxY() + MARGIN_PIXELS) / mapWidth,
+                segment -> found[0] |= classes[segment] != TimeSliceIndex.NO_DATA);
+        return found[0];
+    }
+
+    private Projection project(TileFactoryInfo info, int zoom) {
+        double mapWidth = WebMercator.getMapWidthInPixels(info, zoom);
+        synchronized (projections) {
+            Projection cached = projections.get(zoom);
+            if (cached != null && cached.mapWidth == mapWidth) {
+                return cached;
+            }
+        }
+        double[] xy = new double[normalized.length];
+        IntStream.range(0, normalized.length).parallel().forEach(i -> xy[i] = normalized[i] * mapWidth);
+        Projection projected = new Projection(zoom, mapWidth, xy);
+        synchronized (projections) {
+            projections.put(zoom, projected);
+            Iterator<Projection> eldest = projections.values().iterator();
+            while (projections.size() > CACHED_PROJECTIONS) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return projected;
+    }
+
+    private static class Projection {
+        final int zoom;
+        final double mapWidth;
+        final double[] xy; // World pixels per vertex
+
+        Projection(int zoom, double mapWidth, double[] xy) {
+            this.zoom = zoom;
+            this.mapWidth = mapWidth;
+            this.xy = xy;
+        }
+    }
+
+    // The paths of the last paint through it. Callers alternating between different viewports or
+    // slices, e.g. playback and tile renders, each keep their own so they do not evict each other.
+    public static class PathCache {
+        private volatile CachedPaths paths;
+    }
+
+    private static class CachedPaths {
+        final Projection projection;
+        final Rectangle viewport;
+        final byte[] from;
+        final byte[] to;
+        final Path2D.Float[] paths;
+
+        CachedPaths(Projection projection, Rectangle viewport, byte[] from, byte[] to, Path2D.Float[] paths) {
+            this.projection = projection;
+            this.viewport = viewport;
+            this.from = from;
+            this.to = to;
+            this.paths = paths;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Columnar binary snapshot of everything MapVisualizer needs at startup: segment ids,
+// the segment polylines (see PolylineStore) and the segment x time slot speed cube with the
+// observation count behind every mean, so live observations can be merged into it. A read
+// snapshot serves polylines, speeds and counts straight from the file mapping; the mapping
+// is private, so live updates stay in memory.
+//
+// Layout (little endian):
+//   header  : magic, version, segmentCount, vertexCount, minutesPerSlot, byDayOfWeek,
+//             payloadLength, crc32 (of the header fields before it and the payload)
+//   payload : ids (u16 length + UTF-8 bytes each), vertexOffsets[segmentCount + 1],
+//             coordinates[2 * vertexCount], speeds[segmentCount * slotCount] (NaN = no data),
+//             counts[segmentCount * slotCount]
+public class TrafficSnapshot {
+    static final int MAGIC = 0x56545353; // "VTSS"
+    static final int VERSION = 4;
+    private static final int CRC_OFFSET = 4 * 6 + 8;
+    private static final int HEADER_SIZE = CRC_OFFSET + 8;
+
+    private final String[] segmentIds;
+    private final PolylineStore polylines;
+    private final TimeSlots slots;
+    private final FloatBuffer slotSpeeds;
+    private final IntBuffer slotCounts;
+
+    TrafficSnapshot(String[] segmentIds, PolylineStore polylines, TimeSlots slots, float[] slotSpeeds, int[] slotCounts) {
+        this(segmentIds, polylines, slots, FloatBuffer.wrap(slotSpeeds), IntBuffer.wrap(slotCounts));
+    }
+
+    private TrafficSnapshot(String[] segmentIds, PolylineStore polylines, TimeSlots slots, FloatBuffer slotSpeeds, IntBuffer slotCounts) {
+        this.segmentIds = segmentIds;
+        this.polylines = polylines;
+        this.slots = slots;
+        this.slotSpeeds = slotSpeeds;
+        this.slotCounts = slotCounts;
+    }
+
+    // Segment i of the snapshot is index i of the dictionary; segments and speeds must be encoded against it
+    public static TrafficSnapshot build(SegmentDictionary dictionary, TimeSlots slots, List<Segment> segments, SpeedCube speedCube) {
+        int segmentCount = dictionary.size();
+        String[] ids = new String[segmentCount];
+        String[] geometries = new String[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            ids[i] = dictionary.idOf(i);
+        }
+        for (Segment segment : segments) {
+            geometries[segment.getSegmentIndex()] = segment.getGeometry();
+        }
+
+        PolylineStore.Builder polylines = new PolylineStore.Builder(segmentCount, segmentCount * 8);
+        for (String geometry : geometries) {
+            polylines.addWkt(geometry);
+        }
+
+        int slotCount = slots.getSlotCount();
+        float[] speeds = new float[segmentCount * slotCount];
+        int[] counts = new int[segmentCount * slotCount];
+        Arrays.fill(speeds, Float.NaN);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                int count = speedCube.getCount(segment, slot);
+                if (count > 0) {
+                    speeds[segment * slotCount + slot] = (float) speedCube.getMean(segment, slot);
+                    counts[segment * slotCount + slot] = count;
+                }
+            }
+        }
+        return new TrafficSnapshot(ids, polylines.build(), slots, speeds, counts);
+    }
+
+    // A snapshot is reused when it is at least as new as every source file that still exists
+    public static boolean isUpToDate(Path snapshot, Path... sources) throws IOException {
+        if (!Files.isRegularFile(snapshot)) {
+            return false;
+        }
+        long snapshotTime = Files.getLastModifiedTime(snapshot).toMillis();
+        for (Path source : sources) {
+            if (Files.exists(source) && Files.getLastModifiedTime(source).toMillis() > snapshotTime) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void write(Path path) throws IOException {
+        IntBuffer vertexOffsets = polylines.getOffsets();
+        DoubleBuffer coordinates = polylines.getCoordinates();
+        int offsetCount = vertexOffsets.remaining();
+        int coordinateCount = coordinates.remaining();
+        int cellCount = slotSpeeds.limit();
+        byte[][] encodedIds = new byte[segmentIds.length][];
+        long payloadLength = 0;
+        for (int i = 0; i < segmentIds.length; i++) {
+            encodedIds[i] = segmentIds[i].getBytes(StandardCharsets.UTF_8);
+            if (encodedIds[i].length > 0xFFFF) {
+                throw new IOException("Segment id too long: " + segmentIds[i]);
+            }
+            payloadLength += 2 + encodedIds[i].length;
+        }
+        payloadLength += 4L * offsetCount + 8L * coordinateCount + 8L * cellCount;
+
+        ByteBuffer payload = ByteBuffer.allocate(Math.toIntExact(payloadLength)).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] id : encodedIds) {
+            payload.putShort((short) id.length);
+            payload.put(id);
+        }
+        payload.asIntBuffer().put(vertexOffsets);
+        payload.position(payload.position() + 4 * offsetCount);
+        payload.asDoubleBuffer().put(coordinates);
+        payload.position(payload.position() + 8 * coordinateCount);
+        payload.asFloatBuffer().put(slotSpeeds.duplicate().rewind());
+        payload.position(payload.position() + 4 * cellCount);
+        payload.asIntBuffer().put(slotCounts.duplicate().rewind());
+        payload.position(payload.position() + 4 * cellCount);
+        payload.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(segmentIds.length)
+                .putInt(coordinateCount / 2)
+                .putInt(slots.getMinutesPerSlot())
+                .putInt(slots.isByDayOfWeek() ? 1 : 0)
+                .putLong(payloadLength);
+        header.putLong(checksum(header.duplicate().flip(), payload.duplicate()))
+                .flip();
+
+        // Write next to the target and rename, so a crash never leaves a half-written snapshot
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (payload.hasRemaining()) {
+                channel.write(payload);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Every failure to parse, including counts that do not fit the file, is an IOException so
+    // callers fall back to the CSV sources
+    public static TrafficSnapshot read(Path path) throws IOException {
+        // A private mapping stays valid after the channel is closed and keeps setSpeed out of the file
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            return parse(buffer, path);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt snapshot " + path, e);
+        }
+    }
+
+    private static TrafficSnapshot parse(ByteBuffer buffer, Path path) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a traffic snapshot: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + " in " + path);
+        }
+        int segmentCount = buffer.getInt();
+        int vertexCount = buffer.getInt();
+        int minutesPerSlot = buffer.getInt();
+        int byDayOfWeek = buffer.getInt();
+        long payloadLength = buffer.getLong();
+        long expectedCrc = buffer.getLong();
+        if (payloadLength != buffer.remaining()
+                || checksum(buffer.duplicate().position(0).limit(CRC_OFFSET), buffer.duplicate()) != expectedCrc) {
+            throw new IOException("Snapshot checksum mismatch in " + path);
+        }
+        if (segmentCount < 0 || vertexCount < 0 || minutesPerSlot <= 0 || (byDayOfWeek & ~1) != 0) {
+            throw new IOException("Corrupt snapshot header in " + path);
+        }
+        TimeSlots slots = new TimeSlots(minutesPerSlot, byDayOfWeek == 1);
+        long cellCount = (long) segmentCount * slots.getSlotCount();
+        // Ids take at least their 2 length bytes, so this bounds every allocation below
+        long fixedLength = 4L * (segmentCount + 1) + 16L * vertexCount + 8L * cellCount;
+        if (2L * segmentCount + fixedLength > payloadLength) {
+            throw new IOException("Snapshot counts do not match its size in " + path);
+        }
+
+        String[] ids = new String[segmentCount];
+        byte[] idBytes = new byte[0xFFFF];
+        for (int i = 0; i < segmentCount; i++) {
+            int length = Short.toUnsignedInt(buffer.getShort());
+            buffer.get(idBytes, 0, length);
+            ids[i] = new String(idBytes, 0, length, StandardCharsets.UTF_8);
+        }
+        if (fixedLength != buffer.remaining()) {
+            throw new IOException("Snapshot counts do not match its size in " + path);
+        }
+
+        IntBuffer offsets = buffer.asIntBuffer().limit(segmentCount + 1).slice();
+        buffer.position(buffer.position() + 4 * (segmentCount + 1));
+        DoubleBuffer coordinates = buffer.asDoubleBuffer().limit(2 * vertexCount).slice();
+        buffer.position(buffer.position() + 16 * vertexCount);
+        FloatBuffer speeds = buffer.asFloatBuffer().limit((int) cellCount).slice();
+        buffer.position(buffer.position() + 4 * (int) cellCount);
+        IntBuffer counts = buffer.asIntBuffer().limit((int) cellCount).slice();
+
+        int previous = 0;
+        for (int i = 0; i <= segmentCount; i++) {
+            int offset = offsets.get(i);
+            if (i == 0 ? offset != 0 : offset < previous) {
+                throw new IOException("Corrupt vertex offsets in " + path);
+            }
+            previous = offset;
+        }
+        if (previous != vertexCount) {
+            throw new IOException("Corrupt vertex offsets in " + path);
+        }
+        return new TrafficSnapshot(ids, new PolylineStore(offsets, coordinates), slots, speeds, counts);
+    }
+
+    private static long checksum(ByteBuffer header, ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    public int getSegmentCount() {
+        return segmentIds.length;
+    }
+
+    public String getSegmentId(int segment) {
+        return segmentIds[segment];
+    }
+
+    public SegmentDictionary getDictionary() {
+        return SegmentDictionary.of(segmentIds);
+    }
+
+    public PolylineStore getPolylines() {
+        return polylines;
+    }
+
+    public TimeSlots getSlots() {
+        return slots;
+    }
+
+    // NaN when the segment has no observations in that slot
+    public double getSpeed(int segment, int slot) {
+        return slotSpeeds.get(segment * slots.getSlotCount() + slot);
+    }
+
+    // Observations behind getSpeed, 0 when there is no data
+    public int getCount(int segment, int slot) {
+        return slotCounts.get(segment * slots.getSlotCount() + slot);
+    }
+
+    // Live updates, see LiveSpeedFeed; they never reach a mapped file, only a later write()
+    void setSpeed(int segment, int slot, double speed, int count) {
+        slotSpeeds.put(segment * slots.getSlotCount() + slot, (float) speed);
+        slotCounts.put(segment * slots.getSlotCount() + slot, count);
+    }
+
+    // First slot any segment has data in, -1 when there is no data at all
+    public int getFirstSlotWithData() {
+        return slotWithData(true);
+    }
+
+    // Last slot any segment has data in, -1 when there is no data at all
+    public int getLastSlotWithData() {
+        return slotWithData(false);
+    }
+
+    private int slotWithData(boolean first) {
+        int slotCount = slots.getSlotCount();
+        int found = -1;
+        for (int cell = 0; cell < slotSpeeds.limit(); cell++) {
+            if (!Float.isNaN(slotSpeeds.get(cell))) {
+                int slot = cell % slotCount;
+                if (found < 0 || (first ? slot < found : slot > found)) {
+                    found = slot;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,21 @@
+package org.example;
+
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+// Web Mercator in normalized map units: the whole world map is the square [0, 1] x [0, 1].
+// Multiplying by getMapWidthInPixels gives the same world-bitmap pixels as
+// GeoUtil.getBitmapCoordinate, without allocating a Point2D per vertex.
+public class WebMercator {
+    public static double x(double longitude) {
+        return 0.5 + longitude / 360.0;
+    }
+
+    public static double y(double latitude) {
+        double sin = Math.max(-0.9999, Math.min(0.9999, Math.sin(Math.toRadians(latitude))));
+        return 0.5 - 0.5 * Math.log((1 + sin) / (1 - sin)) / (2 * Math.PI);
+    }
+
+    public static double getMapWidthInPixels(TileFactoryInfo info, int zoom) {
+        return (double) info.getMapWidthInTilesAtZoom(zoom) * info.getTileSize(zoom);
+    }
+}
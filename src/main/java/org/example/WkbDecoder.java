@@ -0,0 +1,102 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Decodes LineString geometries from the geometry column of the Overture export. The
+// column holds WKB as escaped text: printable bytes as themselves, the rest as \xHH,
+// optionally wrapped in CSV quotes when it contains the separator.
+public class WkbDecoder {
+    private static final int WKB_LINESTRING = 2;
+    // EWKB (PostGIS) flags in the type's high bits
+    private static final int EWKB_Z = 0x80000000;
+    private static final int EWKB_M = 0x40000000;
+    private static final int EWKB_SRID = 0x20000000;
+
+    // Returns (lat, lon) pairs interleaved, the same layout TrafficSnapshot uses
+    public static double[] decodeLineString(String escapedWkb) {
+        return decodeLineString(unescape(escapedWkb));
+    }
+
+    // Accepts a 2-D LineString and its Z, M and ZM variants, ISO (type 1002, 2002, 3002) or
+    // EWKB (flag bits, optionally with an SRID); Z and M values are skipped
+    public static double[] decodeLineString(byte[] wkb) {
+        if (wkb.length < 9) {
+            throw new IllegalArgumentException("Truncated WKB of " + wkb.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(wkb);
+        buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int type = buffer.getInt();
+        int dimensions;
+        if ((type & ~(EWKB_Z | EWKB_M | EWKB_SRID)) == WKB_LINESTRING) {
+            dimensions = 2 + ((type & EWKB_Z) != 0 ? 1 : 0) + ((type & EWKB_M) != 0 ? 1 : 0);
+            if ((type & EWKB_SRID) != 0) {
+                if (buffer.remaining() < 8) {
+                    throw new IllegalArgumentException("Truncated EWKB LineString");
+                }
+                buffer.getInt();
+            }
+        } else if (type == 1000 + WKB_LINESTRING || type == 2000 + WKB_LINESTRING) {
+            dimensions = 3;
+        } else if (type == 3000 + WKB_LINESTRING) {
+            dimensions = 4;
+        } else {
+            throw new IllegalArgumentException("Unsupported WKB geometry type 0x" + Integer.toHexString(type));
+        }
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() < count * 8L * dimensions) {
+            throw new IllegalArgumentException("Truncated WKB LineString with " + count + " points");
+        }
+        double[] coordinates = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            double lon = buffer.getDouble();
+            double lat = buffer.getDouble();
+            buffer.position(buffer.position() + 8 * (dimensions - 2));
+            coordinates[2 * i] = lat;
+            coordinates[2 * i + 1] = lon;
+        }
+        return coordinates;
+    }
+
+    static byte[] unescape(String text) {
+        int start = 0;
+        int end = text.length();
+        boolean quoted = end >= 2 && text.charAt(0) == '"' && text.charAt(end - 1) == '"';
+        if (quoted) {
+            start++;
+            end--;
+        }
+
+        byte[] bytes = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char next = text.charAt(i + 1);
+                if (next == 'x' && i + 3 < end) {
+                    bytes[length++] = (byte) ((hexValue(text.charAt(i + 2)) << 4) | hexValue(text.charAt(i + 3)));
+                    i += 3;
+                    continue;
+                }
+                if (next == '\\') {
+                    bytes[length++] = '\\';
+                    i++;
+                    continue;
+                }
+            } else if (quoted && c == '"' && i + 1 < end && text.charAt(i + 1) == '"') {
+                i++;
+            }
+            bytes[length++] = (byte) c;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static int hexValue(char c) {
+        int value = Character.digit(c, 16);
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex digit '" + c + "' in WKB");
+        }
+        return value;
+    }
+}
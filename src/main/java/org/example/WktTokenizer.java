@@ -0,0 +1,186 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Parses WKT LINESTRING text without splitting it into Strings. Numbers are read in place.
+// By default ',' only separates points, as in standard WKT ("1 2,3 4"). Locale-formatted
+// output ("24,03 49,82, 24,04 49,83") is read in decimal-comma mode, where a comma between
+// digits of a number without '.' is its decimal mark and points are separated by ", ".
+public class WktTokenizer {
+    private static final String LINESTRING = "LINESTRING";
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    public static boolean isLineString(CharSequence wkt) {
+        if (wkt == null || wkt.length() < LINESTRING.length()) {
+            return false;
+        }
+        for (int i = 0; i < LINESTRING.length(); i++) {
+            if (wkt.charAt(i) != LINESTRING.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns (lat, lon) pairs interleaved, or an empty array when the text is not a LINESTRING
+    public static double[] parseLineString(CharSequence wkt) {
+        return parseLineString(wkt, false);
+    }
+
+    public static double[] parseLineString(CharSequence wkt, boolean decimalComma) {
+        PolylineStore.Builder builder = new PolylineStore.Builder(1, 16);
+        appendLineString(wkt, builder, decimalComma);
+        return builder.getCoordinates();
+    }
+
+    static void appendLineString(CharSequence wkt, PolylineStore.Builder builder) {
+        appendLineString(wkt, builder, false);
+    }
+
+    static void appendLineString(CharSequence wkt, PolylineStore.Builder builder, boolean decimalComma) {
+        if (!isLineString(wkt)) {
+            return;
+        }
+        Cursor cursor = new Cursor(wkt, decimalComma);
+        cursor.position = LINESTRING.length();
+        if (!cursor.skipTo('(')) {
+            return;
+        }
+        while (true) {
+            cursor.skipWhitespace();
+            if (cursor.atEnd() || cursor.peek() == ')') {
+                return;
+            }
+            double lon = cursor.readNumber();
+            double lat = cursor.readNumber();
+            builder.addVertex(lat, lon);
+            cursor.skipWhitespace();
+            if (cursor.atEnd() || cursor.peek() == ')') {
+                return;
+            }
+            if (cursor.peek() == ',') {
+                cursor.position++;
+            }
+        }
+    }
+
+    private static class Cursor {
+        private final CharSequence text;
+        private final boolean decimalComma;
+        private int position;
+
+        Cursor(CharSequence text, boolean decimalComma) {
+            this.text = text;
+            this.decimalComma = decimalComma;
+        }
+
+        boolean atEnd() {
+            return position >= text.length();
+        }
+
+        char peek() {
+            return text.charAt(position);
+        }
+
+        boolean skipTo(char c) {
+            while (!atEnd() && peek() != c) {
+                position++;
+            }
+            if (atEnd()) {
+                return false;
+            }
+            position++;
+            return true;
+        }
+
+        void skipWhitespace() {
+            while (!atEnd() && Character.isWhitespace(peek())) {
+                position++;
+            }
+        }
+
+        double readNumber() {
+            skipWhitespace();
+            int start = position;
+            boolean negative = false;
+            if (!atEnd() && (peek() == '-' || peek() == '+')) {
+                negative = peek() == '-';
+                position++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = 0;
+            boolean inFraction = false;
+            while (!atEnd()) {
+                char c = peek();
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (inFraction) {
+                        fractionDigits++;
+                    }
+                } else if (!inFraction && (c == '.' || (c == ',' && digits > 0 && isDecimalComma()))) {
+                    inFraction = true;
+                } else {
+                    break;
+                }
+                position++;
+            }
+            if (!atEnd() && (peek() == 'e' || peek() == 'E')) {
+                return readSlow(start);
+            }
+            if (digits == 0) {
+                throw new NumberFormatException("Expected a number at " + start + " in WKT: " + text);
+            }
+            // Exact as long as the mantissa fits in 53 bits and the power of ten is exact
+            if (digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+                return readSlow(start);
+            }
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        private double readSlow(int start) {
+            position = start;
+            char[] chars = new char[64];
+            int length = 0;
+            boolean digits = false;
+            boolean fractionOrExponent = false; // No decimal comma after a '.' or the exponent
+            while (!atEnd() && !Character.isWhitespace(peek()) && peek() != ')') {
+                char c = peek();
+                if (c == ',') {
+                    if (!digits || fractionOrExponent || !isDecimalComma()) {
+                        break;
+                    }
+                    c = '.';
+                }
+                digits |= isDigit(c);
+                fractionOrExponent |= c == '.' || c == 'e' || c == 'E';
+                if (length == chars.length) {
+                    chars = Arrays.copyOf(chars, length * 2);
+                }
+                chars[length++] = c;
+                position++;
+            }
+            return Double.parseDouble(new String(chars, 0, length));
+        }
+
+        // Whether the comma at the position is a decimal mark: in decimal-comma mode when a
+        // digit follows, the point separator then being ", "
+        private boolean isDecimalComma() {
+            return decimalComma && position + 1 < text.length() && isDigit(text.charAt(position + 1));
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompressedSpeedSeriesTest {
+
+    @Test
+    void roundTripsRegularSeriesAcrossBlocks() {
+        int count = 3 * CompressedSpeedSeries.BLOCK_POINTS + 17;
+        long[] times = new long[count];
+        double[] speeds = new double[count];
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            times[i] = 1_714_521_600L + 60L * i;
+            speeds[i] = Math.round(random.nextDouble() * 12_000) / 100.0;
+        }
+        assertRoundTrip(times, speeds);
+    }
+
+    @Test
+    void roundTripsIrregularTimestamps() {
+        // Repeated times, one second steps, gaps of hours and days, and jumps of every delta bucket
+        long[] times = {0, 0, 1, 2, 62, 63, 3_663, 3_664, 90_064, 90_064, 90_100, 1_000_000_000L, 1_000_000_001L, 1_000_000_300L};
+        double[] speeds = {0, 0.01, 250.55, 0, 35.5, 35.5, 35.49, 1_000, 0.5, 0.5, 64.31, 12.34, 12.34, 7};
+        assertRoundTrip(times, speeds);
+    }
+
+    @Test
+    void roundTripsSinglePoint() {
+        assertRoundTrip(new long[]{1_714_521_600L}, new double[]{42.42});
+    }
+
+    @Test
+    void rejectsDecreasingTimestamps() {
+        CompressedSpeedSeries.Builder builder = new CompressedSpeedSeries.Builder().add(100, 1);
+        assertThrows(IllegalArgumentException.class, () -> builder.add(99, 1));
+    }
+
+    private static void assertRoundTrip(long[] times, double[] speeds) {
+        CompressedSpeedSeries.Builder builder = new CompressedSpeedSeries.Builder();
+        for (int i = 0; i < times.length; i++) {
+            builder.add(times[i], speeds[i]);
+        }
+        CompressedSpeedSeries series = builder.build();
+        assertEquals(times.length, series.getPointCount());
+
+        long[] decodedTimes = new long[times.length];
+        double[] decodedSpeeds = new double[speeds.length];
+        long[] blockTimes = new long[CompressedSpeedSeries.BLOCK_POINTS];
+        double[] blockSpeeds = new double[CompressedSpeedSeries.BLOCK_POINTS];
+        int decoded = 0;
+        for (int block = 0; block < series.getBlockCount(); block++) {
+            int points = series.decodeBlock(block, blockTimes, blockSpeeds);
+            System.arraycopy(blockTimes, 0, decodedTimes, decoded, points);
+            System.arraycopy(blockSpeeds, 0, decodedSpeeds, decoded, points);
+            decoded += points;
+        }
+        assertEquals(times.length, decoded);
+        assertArrayEquals(times, decodedTimes);
+        assertArrayEquals(speeds, decodedSpeeds, 1e-9);
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DelimitedRowReaderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void skipsBlankLinesAndCarriageReturns() throws IOException {
+        Path file = write("id,time,speed\r\n\r\n\na,08:00,1.5\r\n\n\r\nb,09:00,2\n\nc,10:00,3");
+        List<String[]> rows = readAll(DelimitedRowReader.open(file, ',', true, 0, 1, 2));
+        assertEquals(3, rows.size());
+        assertArrayEquals(new String[]{"a", "08:00", "1.5"}, rows.get(0));
+        assertArrayEquals(new String[]{"b", "09:00", "2"}, rows.get(1));
+        assertArrayEquals(new String[]{"c", "10:00", "3"}, rows.get(2));
+    }
+
+    @Test
+    void emptyAndBlankOnlyFilesHaveNoRows() throws IOException {
+        assertEquals(0, readAll(DelimitedRowReader.open(write(""), ',', false, 0)).size());
+        assertEquals(0, readAll(DelimitedRowReader.open(write("header\n\n\r\n"), ',', true, 0)).size());
+    }
+
+    @Test
+    void negativeColumnsCountFromTheEnd() throws IOException {
+        // The geometry contains the separator, so only the first and last columns are fixed
+        Path file = write("id|geometry|length\np1|LINESTRING (1 2|3 4)|2.5\np2|LINESTRING (5 6)|7\n");
+        List<String[]> rows = readAll(DelimitedRowReader.open(file, '|', true, 0, -1).withSpan(1, -2));
+        assertArrayEquals(new String[]{"p1", "2.5", "LINESTRING (1 2|3 4)"}, rows.get(0));
+        assertArrayEquals(new String[]{"p2", "7", "LINESTRING (5 6)"}, rows.get(1));
+    }
+
+    @Test
+    void leadingAndTrailingColumnsKeepTheRequestedOrder() throws IOException {
+        Path file = write("a,b,c,d,e\n");
+        assertArrayEquals(new String[]{"e", "a", "d", "b"}, readAll(DelimitedRowReader.open(file, ',', false, -1, 0, -2, 1)).get(0));
+    }
+
+    @Test
+    void missingColumnsAreNull() throws IOException {
+        Path file = write("a,b\nc\n");
+        List<String[]> rows = readAll(DelimitedRowReader.open(file, ',', false, 0, 2));
+        assertArrayEquals(new String[]{"a", null}, rows.get(0));
+        assertArrayEquals(new String[]{"c", null}, rows.get(1));
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = Files.createTempFile(directory, "rows", ".csv");
+        Files.writeString(file, content);
+        return file;
+    }
+
+    // Rows are reused by the reader, so each one is copied
+    private static List<String[]> readAll(DelimitedRowReader reader) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (reader) {
+            while (reader.hasNext()) {
+                rows.add(reader.next().clone());
+            }
+        }
+        return rows;
+    }
+}
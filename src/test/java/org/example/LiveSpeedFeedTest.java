@@ -0,0 +1,138 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LiveSpeedFeedTest {
+    private static final long TIMEOUT_MS = 10_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void cubeRejectsCellsOutsideIt() {
+        SpeedCube cube = new SpeedCube(2, 24, new SpeedQuantiles(2, 24));
+        assertThrows(IllegalArgumentException.class, () -> cube.add(0, 24, 10));
+        assertThrows(IllegalArgumentException.class, () -> cube.add(0, -1, 10));
+        assertThrows(IllegalArgumentException.class, () -> cube.add(2, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> cube.addMean(-1, 0, 10, 1));
+        assertEquals(0, cube.getCount(1, 0));
+        assertEquals(0, cube.getQuantiles().getCount(1, 0));
+    }
+
+    @Test
+    void skipsRejectedRowsWithoutTouchingTheCube() throws Exception {
+        SegmentDictionary dictionary = SegmentDictionary.of(new String[]{"a", "b"});
+        SpeedCube cube = new SpeedCube(2, 24);
+        BitSet updated = new BitSet();
+        try (LiveSpeedFeed feed = new LiveSpeedFeed(dictionary, TimeSlots.hourly(), cube, cells -> {
+            synchronized (updated) {
+                for (int cell : cells) {
+                    updated.set(cell);
+                }
+            }
+        }).start()) {
+            feed.offer("a", "2024-05-01 07:05:00", 12);
+            feed.offer("a", "7:05", 99);
+            feed.offer("a", "2024-05-01T07:05", 99);
+            feed.offer("b", "2024-05-01 24:00:00", 99);
+            feed.offer("b", "2024-05-01 23:00:00", Double.NaN);
+            feed.offer("c", "2024-05-01 07:05:00", 99);
+            feed.offer("b", "2024-05-01 23:59:59", 4);
+            waitFor(() -> feed.getIngestedCount() + feed.getSkippedCount() == 7);
+            assertEquals(2, feed.getIngestedCount());
+            assertEquals(5, feed.getSkippedCount());
+            waitFor(() -> {
+                synchronized (updated) {
+                    return updated.cardinality() == 2;
+                }
+            });
+        }
+        assertEquals(12, cube.getMean(0, 7));
+        assertEquals(4, cube.getMean(1, 23));
+        int total = 0;
+        for (int segment = 0; segment < 2; segment++) {
+            for (int slot = 0; slot < 24; slot++) {
+                total += cube.getCount(segment, slot);
+            }
+        }
+        assertEquals(2, total);
+        assertEquals(BitSet.valueOf(new long[]{1L << 7 | 1L << 47}), updated);
+    }
+
+    @Test
+    void tailSkipsMalformedLines() throws Exception {
+        Path file = directory.resolve("live.csv");
+        Files.writeString(file, "segment_id,time,avg_speed\n");
+        SegmentDictionary dictionary = SegmentDictionary.of(new String[]{"a"});
+        SpeedCube cube = new SpeedCube(1, 24);
+        try (LiveSpeedFeed feed = LiveSpeedFeed.tail(file, dictionary, TimeSlots.hourly(), cube, cells -> {
+        })) {
+            append(file, "a,2024-05-01 08:00:00,10\na,8:00,10\na,2024-05-01 08:00:00\na,2024-05-01 99:00:00,1\na,2024-05-01 08:30:00,20\n");
+            waitFor(() -> feed.getIngestedCount() + feed.getSkippedCount() == 5);
+            assertEquals(2, feed.getIngestedCount());
+            assertEquals(3, feed.getSkippedCount());
+        }
+        assertEquals(15, cube.getMean(0, 8));
+    }
+
+    @Test
+    void sliceUpdatesReplaceTheBuiltSlices() {
+        double[] speeds = {10, 1, Double.NaN, 4};
+        TimeSliceIndex index = new TimeSliceIndex(2, 2, (segment, slot) -> speeds[segment * 2 + slot]);
+        byte[] slot0 = index.getSlice(0);
+        byte[] before = slot0.clone();
+        index.update(new int[]{0, 2}, () -> {
+            speeds[0] = 1;
+            speeds[2] = 5;
+        });
+        assertArrayEquals(before, slot0); // Readers holding the old slice see it unchanged
+        assertNotSame(slot0, index.getSlice(0));
+        assertArrayEquals(new byte[]{TimeSliceIndex.SLOW, TimeSliceIndex.MEDIUM}, index.getSlice(0));
+        byte[] slot1 = index.getSlice(1);
+        index.update(new int[]{0}, () -> speeds[0] = 2);
+        assertSame(slot1, index.getSlice(1));
+    }
+
+    @Test
+    void movingACellEmptiesTheSource() {
+        SpeedQuantiles shown = new SpeedQuantiles(1, 2);
+        SpeedQuantiles live = new SpeedQuantiles(1, 2);
+        shown.add(0, 1, 10);
+        live.add(0, 1, 100);
+        live.add(0, 1, 0.1);
+        shown.moveCell(live, 0, 1);
+        shown.moveCell(live, 0, 0);
+        assertEquals(3, shown.getCount(0, 1));
+        assertEquals(0, shown.getCount(0, 0));
+        assertEquals(0, live.getCount(0, 1));
+        assertEquals(SpeedQuantiles.valueOf(SpeedQuantiles.bucketOf(100)), shown.getQuantile(0, 1, 1), 1e-9);
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.writeString(file, text, StandardOpenOption.APPEND);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OverlayTileCacheTest {
+    private static final TileFactoryInfo INFO = new TileFactoryInfo(1, 15, 17, 256, true, true, "x", "x", "y", "z");
+
+    @Test
+    void keysOfSlotsBeyond4096DoNotCollide() {
+        assertNotEquals(OverlayTileCache.key(5, 10, 20, 0), OverlayTileCache.key(5, 10, 20, 4096));
+        assertNotEquals(OverlayTileCache.key(5, 10, 20, 10079), OverlayTileCache.key(5, 10, 20, 10079 & 0xFFF));
+        assertNotEquals(OverlayTileCache.key(5, 10, 20, 10079), OverlayTileCache.key(6, 10, 20, 10079));
+    }
+
+    @Test
+    void cachesAndInvalidatesMinuteSlotsByDayOfWeek() throws Exception {
+        // One short segment near Lviv, with data only in the last slot of the week
+        TimeSlots slots = new TimeSlots(1, true);
+        int lastSlot = slots.getSlotCount() - 1;
+        PolylineStore.Builder builder = new PolylineStore.Builder();
+        builder.add(new double[]{49.826, 24.030, 49.827, 24.040});
+        PolylineStore polylines = builder.build();
+        TimeSliceIndex timeSlices = new TimeSliceIndex(1, slots.getSlotCount(),
+                (segment, slot) -> slot == lastSlot ? 10 : Double.NaN);
+        TrafficOverlayPainter overlay = new TrafficOverlayPainter(SegmentRTree.build(polylines),
+                SimplificationPyramid.build(polylines, INFO), timeSlices.getSlice(lastSlot));
+        OverlayTileCache cache = new OverlayTileCache(overlay, timeSlices, INFO, null, 16L << 20, () -> {
+        });
+
+        int zoom = 5;
+        double mapWidth = WebMercator.getMapWidthInPixels(INFO, zoom);
+        int x = (int) (WebMercator.x(24.035) * mapWidth) / 256;
+        int y = (int) (WebMercator.y(49.8265) * mapWidth) / 256;
+        BufferedImage tile = cache.request(zoom, x, y, lastSlot).get(10, TimeUnit.SECONDS);
+        assertNotSame(OverlayTileCache.EMPTY, tile);
+        // Same tile in the slot that shared its key before
+        assertSame(OverlayTileCache.EMPTY, cache.request(zoom, x, y, lastSlot & 0xFFF).get(10, TimeUnit.SECONDS));
+        assertSame(tile, cache.getTile(zoom, x, y, lastSlot));
+
+        cache.invalidate(lastSlot, List.of(new Rectangle2D.Double(WebMercator.x(24.03), WebMercator.y(49.827), 1e-4, 1e-4)));
+        assertNotSame(tile, cache.request(zoom, x, y, lastSlot).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void rejectsSlotCountsTheKeysCannotHold() {
+        PolylineStore polylines = new PolylineStore.Builder().build();
+        TimeSliceIndex timeSlices = new TimeSliceIndex(0, (1 << 18) + 1, (segment, slot) -> Double.NaN);
+        TrafficOverlayPainter overlay = new TrafficOverlayPainter(SegmentRTree.build(polylines),
+                SimplificationPyramid.build(polylines, INFO), new byte[0]);
+        assertThrows(IllegalArgumentException.class, () -> new OverlayTileCache(overlay, timeSlices, INFO, null, 1 << 20, () -> {
+        }));
+    }
+}
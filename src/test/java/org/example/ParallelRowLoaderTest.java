@@ -0,0 +1,67 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelRowLoaderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsRowsInFileOrderAcrossRanges() throws Exception {
+        // Large enough for several 4 MB ranges, with lines of varying length
+        Path file = directory.resolve("avg_speeds.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("segmentId,time,avgSpeed\n");
+            for (int i = 0; i < 400_000; i++) {
+                writer.write("segment-" + (i * 7919 % 100_003) + ",2024-03-0" + (1 + i % 7) + " 08:00:00," + (i % 1000) / 10.0 + "\n");
+            }
+        }
+        assertTrue(Files.size(file) > 12 << 20);
+
+        CSVLoader loader = new CSVLoader();
+        List<AvgSpeed> sequential = loader.loadAvgSpeeds(file.toString());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<AvgSpeed> parallel = ParallelRowLoader.load(file, ',', true, pool,
+                    line -> new AvgSpeed(line[0], line[1], Double.parseDouble(line[2])), 0, 1, 2);
+            assertEquals(400_000, parallel.size());
+            assertEquals(sequential.size(), parallel.size());
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(sequential.get(i).getSegmentId(), parallel.get(i).getSegmentId());
+                assertEquals(sequential.get(i).getTime(), parallel.get(i).getTime());
+                assertEquals(sequential.get(i).getAvgSpeed(), parallel.get(i).getAvgSpeed());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void rangesStartAfterNewlines() throws IOException {
+        Path file = directory.resolve("rows.csv");
+        String text = "a,1\nbb,22\nccc,333\n\ndddd,4444\ne,5";
+        Files.writeString(file, text);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] boundaries = ParallelRowLoader.splitAtNewlines(channel, 0, text.length(), 5);
+            assertEquals(0, boundaries[0]);
+            assertEquals(text.length(), boundaries[boundaries.length - 1]);
+            for (int i = 1; i < boundaries.length - 1; i++) {
+                assertTrue(boundaries[i] > boundaries[i - 1]);
+                assertEquals('\n', text.charAt((int) boundaries[i] - 1));
+            }
+        }
+    }
+}
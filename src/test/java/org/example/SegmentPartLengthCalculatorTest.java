@@ -0,0 +1,55 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SegmentPartLengthCalculatorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rerunsLeaveTheFileUnchanged() throws IOException {
+        // More than one batch, so the parts are measured in parallel
+        Path file = directory.resolve("segment_parts.csv");
+        StringBuilder text = new StringBuilder("id|segmentId|geometry\n");
+        for (int i = 0; i < 10_000; i++) {
+            text.append("p").append(i).append("|s").append(i / 3)
+                    .append("|LINESTRING (24.0").append(i % 10).append(" 49.8, 24.0").append(i % 10).append(" 49.81)\n");
+        }
+        Files.writeString(file, text);
+
+        assertEquals(10_000, SegmentPartLengthCalculator.updateSegmentLengths(file.toString()));
+        List<String> first = Files.readAllLines(file);
+        assertEquals(10_000, SegmentPartLengthCalculator.updateSegmentLengths(file.toString()));
+        assertEquals(first, Files.readAllLines(file));
+
+        assertEquals(10_001, first.size());
+        assertEquals("id|segmentId|geometry|length", first.get(0));
+        String[] last = first.get(10_000).split("\\|");
+        assertEquals("p9999", last[0]);
+        assertEquals(4, last.length);
+        // 0.01 degrees of latitude
+        assertEquals(SegmentPartLengthCalculator.calculateLengthFromWKT("LINESTRING (24.09 49.8, 24.09 49.81)"),
+                Double.parseDouble(last[3]));
+        assertEquals(1112, Double.parseDouble(last[3]), 5);
+    }
+
+    @Test
+    void replacesLengthColumnsLeftByOlderVersions() throws IOException {
+        Path file = directory.resolve("segment_parts.csv");
+        Files.writeString(file, "id|segmentId|geometry|length|length\np1|s1|LINESTRING (24,03 49,82, 24,03 49,83)|1.0|2.0\n");
+
+        SegmentPartLengthCalculator.updateSegmentLengths(file.toString());
+        List<String> lines = Files.readAllLines(file);
+        assertEquals("id|segmentId|geometry|length", lines.get(0));
+        assertEquals("p1|s1|LINESTRING (24,03 49,82, 24,03 49,83)|"
+                + SegmentPartLengthCalculator.calculateLengthFromWKT("LINESTRING (24,03 49,82, 24,03 49,83)"), lines.get(1));
+    }
+}
@@ -0,0 +1,104 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentPartsSpeedJoinerTest {
+    // Large enough for one in-memory partition, and small enough to force many partitions and
+    // the re-partitioning of the segment with most speeds
+    private static final long[] BUDGETS = {1L << 30, 64 << 10, 4 << 10};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rowsMatchAcrossMemoryBudgets() throws IOException {
+        writeInput();
+        List<String> expected = null;
+        for (long budget : BUDGETS) {
+            Path output = directory.resolve("joined-" + budget + ".csv");
+            long rows = SegmentPartsSpeedJoiner.joinSegmentPartsAndSpeeds(
+                    directory.resolve("parts.csv"), directory.resolve("speeds.csv"), output, budget);
+            List<String> lines = sortedBody(output);
+            assertEquals(rows, lines.size());
+            if (expected == null) {
+                assertTrue(rows > 0);
+                expected = lines;
+            } else {
+                assertEquals(expected, lines, "budget " + budget);
+            }
+        }
+        assertWorkDirectoriesRemoved();
+    }
+
+    @Test
+    void normalizedOutputMatchesAcrossMemoryBudgets() throws IOException {
+        writeInput();
+        List<String> expectedParts = null;
+        List<String> expectedSpeeds = null;
+        for (long budget : BUDGETS) {
+            Path output = directory.resolve("parts-" + budget + ".csv");
+            Path speedsOutput = directory.resolve("speeds-" + budget + ".csv");
+            SegmentPartsSpeedJoiner.joinSegmentPartsAndSpeeds(directory.resolve("parts.csv"), directory.resolve("speeds.csv"),
+                    SegmentPartsSpeedJoiner.OutputMode.NORMALIZED, output, speedsOutput, budget);
+            List<String> parts = sortedBody(output);
+            List<String> speeds = sortedBody(speedsOutput);
+            if (expectedParts == null) {
+                expectedParts = parts;
+                expectedSpeeds = speeds;
+            } else {
+                assertEquals(expectedParts, parts, "budget " + budget);
+                assertEquals(expectedSpeeds, speeds, "budget " + budget);
+            }
+        }
+        assertWorkDirectoriesRemoved();
+    }
+
+    // Segments with and without speeds, speeds of unknown segments, and one segment with far
+    // more speeds than the rest
+    private void writeInput() throws IOException {
+        Random random = new Random(7);
+        try (PrintWriter parts = new PrintWriter(Files.newBufferedWriter(directory.resolve("parts.csv")));
+             PrintWriter speeds = new PrintWriter(Files.newBufferedWriter(directory.resolve("speeds.csv")))) {
+            parts.println("id|segmentId|geometry|length");
+            speeds.println("segment_id,time,avg_speed");
+            for (int segment = 0; segment < 60; segment++) {
+                for (int part = 0; part < 3; part++) {
+                    parts.println("part-" + segment + "-" + part + "|segment-" + segment
+                            + "|LINESTRING (24.0" + segment + " 49.8" + part + ", 24.0" + segment + " 49.8" + (part + 1) + ")|" + (part + 1) + ",5");
+                }
+            }
+            for (int segment = 10; segment < 80; segment++) {
+                int hours = segment == 20 ? 24 * 40 : 24;
+                for (int i = 0; i < hours; i++) {
+                    speeds.println("segment-" + segment + "," + String.format("%02d:%02d:00", i % 24, i / 24) + ","
+                            + Math.round(random.nextDouble() * 9_000) / 100.0);
+                }
+            }
+        }
+    }
+
+    private static List<String> sortedBody(Path file) throws IOException {
+        try (Stream<String> lines = Files.lines(file)) {
+            return lines.skip(1).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void assertWorkDirectoriesRemoved() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(".join")));
+        }
+    }
+}
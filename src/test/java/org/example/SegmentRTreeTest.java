@@ -0,0 +1,69 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SegmentRTreeTest {
+
+    private static List<Integer> query(SegmentRTree tree, double minX, double minY, double maxX, double maxY) {
+        List<Integer> found = new ArrayList<>();
+        tree.query(minX, minY, maxX, maxY, found::add);
+        found.sort(null);
+        return found;
+    }
+
+    private static List<Integer> bruteForce(double[] boxes, double minX, double minY, double maxX, double maxY) {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < boxes.length / 4; i++) {
+            if (boxes[4 * i] <= maxX && boxes[4 * i + 2] >= minX && boxes[4 * i + 1] <= maxY && boxes[4 * i + 3] >= minY) {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    @Test
+    void findsTheSameBoxesAsABruteForceScan() {
+        Random random = new Random(7);
+        // Sizes around the node capacity and deep enough for several levels
+        for (int count : new int[]{0, 1, 16, 17, 257, 5000}) {
+            double[] boxes = new double[count * 4];
+            for (int i = 0; i < count; i++) {
+                double x = random.nextDouble();
+                double y = random.nextDouble();
+                boxes[4 * i] = x;
+                boxes[4 * i + 1] = y;
+                boxes[4 * i + 2] = x + random.nextDouble() * 0.02;
+                boxes[4 * i + 3] = y + random.nextDouble() * 0.02;
+            }
+            SegmentRTree tree = SegmentRTree.build(boxes.clone());
+            assertEquals(count, tree.size());
+            for (int q = 0; q < 200; q++) {
+                double minX = random.nextDouble();
+                double minY = random.nextDouble();
+                double maxX = minX + random.nextDouble() * (q % 2 == 0 ? 0.05 : 0.5);
+                double maxY = minY + random.nextDouble() * (q % 2 == 0 ? 0.05 : 0.5);
+                assertEquals(bruteForce(boxes, minX, minY, maxX, maxY), query(tree, minX, minY, maxX, maxY));
+            }
+            assertEquals(bruteForce(boxes, 0, 0, 2, 2), query(tree, 0, 0, 2, 2));
+        }
+    }
+
+    @Test
+    void skipsEmptyPolylines() {
+        PolylineStore.Builder builder = new PolylineStore.Builder();
+        builder.add(new double[]{49.826, 24.030, 49.827, 24.040});
+        builder.add(new double[0]);
+        builder.add(new double[]{49.830, 24.050});
+        SegmentRTree tree = SegmentRTree.build(builder.build());
+
+        assertEquals(3, tree.size());
+        assertEquals(List.of(0, 2), query(tree, 0, 0, 1, 1));
+        assertEquals(List.of(0), query(tree, WebMercator.x(24.035), WebMercator.y(49.8265), WebMercator.x(24.035), WebMercator.y(49.8265)));
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpeedHistoryStoreTest {
+    private static final LocalDate MONDAY = LocalDate.of(2024, 3, 4);
+    private static final LocalDate TUESDAY = LocalDate.of(2024, 3, 5);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void importsDaysAndReadsThemBackAfterReopening() throws IOException {
+        Path segments = directory.resolve("segments.csv");
+        Files.writeString(segments, "id|geometry\ns1|LINESTRING (1 2, 3 4)\ns2|LINESTRING (5 6, 7 8)\n");
+        // Days interleaved, one unknown segment
+        Path avgSpeeds = directory.resolve("avg_speeds.csv");
+        Files.writeString(avgSpeeds, "segmentId,time,avgSpeed\n"
+                + "s2,2024-03-05 08:10:00,30\n"
+                + "s1,2024-03-04 08:00:00,10\n"
+                + "unknown,2024-03-04 08:00:00,99\n"
+                + "s1,2024-03-05 08:59:59,40\n"
+                + "s1,2024-03-04 08:30:00,20\n"
+                + "s2,2024-03-04 23:00:00,50\n");
+        Path history = directory.resolve("history");
+
+        SpeedHistoryStore store = SpeedHistoryStore.open(history, 60);
+        assertEquals(List.of(MONDAY, TUESDAY), store.importAvgSpeeds(avgSpeeds, segments));
+        assertEquals(15, store.getSpeed(MONDAY, 0, 8));
+
+        SpeedHistoryStore reopened = SpeedHistoryStore.open(history, 60);
+        assertEquals(2, reopened.getDictionary().size());
+        assertEquals(1, reopened.getDictionary().indexOf("s2"));
+        assertEquals(List.of(MONDAY, TUESDAY), reopened.getDays());
+        assertEquals(15, reopened.getSpeed(MONDAY, 0, 8));
+        assertEquals(50, reopened.getSpeed(MONDAY, 1, 23));
+        assertEquals(30, reopened.getSpeed(TUESDAY, 1, 8));
+        assertTrue(Double.isNaN(reopened.getSpeed(TUESDAY, 0, 9)));
+        assertTrue(Double.isNaN(reopened.getSpeed(LocalDate.of(2024, 3, 6), 0, 8)));
+
+        // Weighted by observations: (10 + 20 + 40) / 3
+        SpeedCube both = reopened.aggregate(MONDAY, TUESDAY, date -> true);
+        assertEquals(3, both.getCount(0, 8));
+        assertEquals(70 / 3.0, both.getMean(0, 8), 1e-4);
+        float[] tuesdays = reopened.aggregateSlot(MONDAY, TUESDAY, date -> date.getDayOfWeek() == DayOfWeek.TUESDAY, 8);
+        assertEquals(40, tuesdays[0]);
+        assertEquals(30, tuesdays[1]);
+    }
+
+    @Test
+    void rejectsDaysWrittenWithOtherSlots() throws IOException {
+        Path history = directory.resolve("history");
+        SpeedHistoryStore store = SpeedHistoryStore.open(history, 60);
+        store.getDictionary().intern("s1");
+        SpeedCube cube = new SpeedCube(1, 24);
+        cube.add(0, 8, 10);
+        store.appendDay(MONDAY, cube);
+
+        SpeedHistoryStore quarterHours = SpeedHistoryStore.open(history, 15);
+        assertThrows(IOException.class, () -> quarterHours.getSpeed(MONDAY, 0, 8));
+    }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpeedQuantilesTest {
+    @TempDir
+    Path directory;
+
+    private static SpeedQuantiles sample() {
+        SpeedQuantiles quantiles = new SpeedQuantiles(5, 24);
+        for (int i = 0; i < 200; i++) {
+            quantiles.add(1, 8, 10 + i % 50);
+            quantiles.add(1, 17, 0.5 + i);
+        }
+        quantiles.add(4, 0, 42);
+        return quantiles;
+    }
+
+    @Test
+    void roundTripsEveryCell() throws IOException {
+        Path file = directory.resolve("quantiles.bin");
+        SpeedQuantiles written = sample();
+        written.write(file);
+        SpeedQuantiles read = SpeedQuantiles.read(file);
+
+        assertEquals(5, read.getSegmentCount());
+        assertEquals(24, read.getSlotCount());
+        for (int segment = 0; segment < 5; segment++) {
+            for (int slot = 0; slot < 24; slot++) {
+                assertEquals(written.getCount(segment, slot), read.getCount(segment, slot));
+                for (double q : new double[]{0, 0.1, 0.5, 0.85, 1}) {
+                    assertEquals(written.getQuantile(segment, slot, q), read.getQuantile(segment, slot, q));
+                }
+            }
+        }
+        assertEquals(200, read.getCount(1, 17));
+        assertEquals(42, read.getQuantile(4, 0, 0.5), 42 * SpeedQuantiles.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    void rejectsCorruptAndTruncatedFiles() throws IOException {
+        Path file = directory.resolve("quantiles.bin");
+        sample().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        byte[] flipped = bytes.clone();
+        flipped[bytes.length / 2] ^= 1;
+        Files.write(file, flipped);
+        assertThrows(IOException.class, () -> SpeedQuantiles.read(file));
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+        assertThrows(IOException.class, () -> SpeedQuantiles.read(file));
+    }
+}
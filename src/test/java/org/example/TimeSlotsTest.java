@@ -0,0 +1,40 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeSlotsTest {
+
+    @Test
+    void bucketsByTimeOfDayAndDayOfWeek() {
+        assertEquals(0, TimeSlots.hourly().slotOf("2024-05-01 00:00:00"));
+        assertEquals(23, TimeSlots.hourly().slotOf("2024-05-01 23:59:59"));
+        assertEquals(29, new TimeSlots(15, false).slotOf("2024-05-01 07:15:00"));
+        // 2024-05-01 is a Wednesday, 2024-05-05 a Sunday
+        TimeSlots weekly = new TimeSlots(1, true);
+        assertEquals(2 * 1440 + 7 * 60 + 5, weekly.slotOf("2024-05-01 07:05:00"));
+        assertEquals(weekly.getSlotCount() - 1, weekly.slotOf("2024-05-05 23:59:00"));
+    }
+
+    @Test
+    void readsEpochSeconds() {
+        assertEquals(0, TimeSlots.epochSecondOf("1970-01-01 00:00:00"));
+        assertEquals(1_714_537_023L, TimeSlots.epochSecondOf("2024-05-01 04:17:03"));
+    }
+
+    @Test
+    void rejectsMalformedTimestamps() {
+        TimeSlots weekly = new TimeSlots(60, true);
+        for (String timestamp : new String[]{"7:05", "07:05:00", "2024-01-01T07:05", "2024-01-01 7:05:00",
+                "2024-01-01 24:00:00", "2024-01-01 07:60:00", "2024-13-01 07:05:00", "2024-01-00 07:05:00",
+                "2024-01-01 0a:05:00", "20x4-01-01 07:05:00", ""}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> weekly.slotOf(timestamp), timestamp);
+            assertTrue(e.getMessage().endsWith(": " + timestamp));
+        }
+        assertThrows(IllegalArgumentException.class, () -> TimeSlots.epochSecondOf("2024-01-01 07:05"));
+        assertThrows(IllegalArgumentException.class, () -> TimeSlots.epochSecondOf("2024-01-01 07:05:60"));
+    }
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrafficSnapshotTest {
+    @TempDir
+    Path dir;
+
+    private static TrafficSnapshot sample() {
+        TimeSlots slots = new TimeSlots(60, false);
+        PolylineStore.Builder polylines = new PolylineStore.Builder();
+        polylines.add(new double[]{49.826, 24.030, 49.827, 24.040});
+        polylines.add(new double[]{49.830, 24.050, 49.831, 24.051, 49.832, 24.052});
+        float[] speeds = new float[2 * slots.getSlotCount()];
+        int[] counts = new int[speeds.length];
+        Arrays.fill(speeds, Float.NaN);
+        speeds[3] = 42.5f;
+        counts[3] = 7;
+        speeds[slots.getSlotCount() + 20] = 13f;
+        counts[slots.getSlotCount() + 20] = 1;
+        return new TrafficSnapshot(new String[]{"a", "сегмент-2"}, polylines.build(), slots, speeds, counts);
+    }
+
+    @Test
+    void roundTripsThroughTheMappedFile() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        TrafficSnapshot written = sample();
+        written.write(file);
+        TrafficSnapshot read = TrafficSnapshot.read(file);
+
+        assertEquals(2, read.getSegmentCount());
+        assertEquals("сегмент-2", read.getSegmentId(1));
+        assertEquals(60, read.getSlots().getMinutesPerSlot());
+        PolylineStore polylines = read.getPolylines();
+        assertEquals(2, polylines.size());
+        assertEquals(5, polylines.getTotalVertexCount());
+        assertEquals(2, polylines.getStart(1));
+        assertEquals(49.832, polylines.getLatitude(4));
+        assertEquals(24.052, polylines.getLongitude(4));
+        assertEquals(42.5, read.getSpeed(0, 3));
+        assertEquals(7, read.getCount(0, 3));
+        assertTrue(Double.isNaN(read.getSpeed(1, 3)));
+        assertEquals(3, read.getFirstSlotWithData());
+        assertEquals(20, read.getLastSlotWithData());
+
+        // Live updates stay in memory
+        read.setSpeed(0, 3, 50, 8);
+        assertEquals(50, read.getSpeed(0, 3));
+        assertEquals(42.5, TrafficSnapshot.read(file).getSpeed(0, 3));
+
+        Path copy = dir.resolve("copy.bin");
+        read.write(copy);
+        assertEquals(50, TrafficSnapshot.read(copy).getSpeed(0, 3));
+    }
+
+    @Test
+    void rejectsFlippedPayloadAndHeaderBytes() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        sample().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        byte[] payload = bytes.clone();
+        payload[payload.length - 5] ^= 1;
+        Files.write(file, payload);
+        assertThrows(IOException.class, () -> TrafficSnapshot.read(file));
+
+        // vertexCount
+        byte[] header = bytes.clone();
+        header[12] ^= 1;
+        Files.write(file, header);
+        assertThrows(IOException.class, () -> TrafficSnapshot.read(file));
+    }
+
+    @Test
+    void reportsTruncatedFilesAndBadCountsAsIOException() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        sample().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, 20));
+        assertThrows(IOException.class, () -> TrafficSnapshot.read(file));
+
+        // Counts that do not fit the file behind a valid checksum
+        for (int segmentCount : new int[]{-1, 3, Integer.MAX_VALUE}) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(8, segmentCount);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, 32);
+            crc.update(buffer.array(), 40, bytes.length - 40);
+            buffer.putLong(32, crc.getValue());
+            Files.write(file, buffer.array());
+            assertThrows(IOException.class, () -> TrafficSnapshot.read(file));
+        }
+    }
+}
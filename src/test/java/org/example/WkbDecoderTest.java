@@ -0,0 +1,110 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WkbDecoderTest {
+    // (lon, lat) per point, as stored in WKB
+    private static final double[] POINTS = {24.0142644, 49.8266253, 24.0138907, 49.8263217, -0.5, -33.25};
+    private static final double[] LAT_LON = {49.8266253, 24.0142644, 49.8263217, 24.0138907, -33.25, -0.5};
+
+    @Test
+    void decodesLittleAndBigEndian() {
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.LITTLE_ENDIAN, 2, POINTS)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.BIG_ENDIAN, 2, POINTS)));
+    }
+
+    @Test
+    void decodesEscapedAndQuotedText() {
+        String escaped = escape(lineString(ByteOrder.LITTLE_ENDIAN, 2, POINTS));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(escaped));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString('"' + escaped + '"'));
+    }
+
+    @Test
+    void decodesEmptyLineString() {
+        assertArrayEquals(new double[0], WkbDecoder.decodeLineString(lineString(ByteOrder.LITTLE_ENDIAN, 2, new double[0])));
+    }
+
+    @Test
+    void skipsZAndMOfIsoAndEwkbLineStrings() {
+        double[] xyz = {24.0142644, 49.8266253, 310, 24.0138907, 49.8263217, 312, -0.5, -33.25, 0};
+        double[] xyzm = {24.0142644, 49.8266253, 310, 1, 24.0138907, 49.8263217, 312, 2, -0.5, -33.25, 0, 3};
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.LITTLE_ENDIAN, 1002, xyz)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.BIG_ENDIAN, 2002, xyz)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.LITTLE_ENDIAN, 3002, xyzm)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.LITTLE_ENDIAN, 0x80000002, xyz)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(lineString(ByteOrder.BIG_ENDIAN, 0x40000002, xyz)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(ewkbWithSrid(ByteOrder.LITTLE_ENDIAN, 0xA0000002, xyz)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(ewkbWithSrid(ByteOrder.BIG_ENDIAN, 0xE0000002, xyzm)));
+        assertArrayEquals(LAT_LON, WkbDecoder.decodeLineString(ewkbWithSrid(ByteOrder.LITTLE_ENDIAN, 0x20000002, POINTS)));
+    }
+
+    @Test
+    void rejectsOtherGeometryTypes() {
+        for (int type : new int[]{1, 1001, 5, 4002, 0x80000001, 0x10000002, 0x00010002}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> WkbDecoder.decodeLineString(lineString(ByteOrder.LITTLE_ENDIAN, type, new double[]{1, 2})));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        byte[] wkb = lineString(ByteOrder.BIG_ENDIAN, 2, POINTS);
+        assertThrows(IllegalArgumentException.class, () -> WkbDecoder.decodeLineString(Arrays.copyOf(wkb, wkb.length - 8)));
+        assertThrows(IllegalArgumentException.class, () -> WkbDecoder.decodeLineString(Arrays.copyOf(wkb, 5)));
+        // Z values counted in, so the 2-D size is too short for three 3-D points
+        byte[] z = lineString(ByteOrder.LITTLE_ENDIAN, 1002, new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        assertThrows(IllegalArgumentException.class, () -> WkbDecoder.decodeLineString(Arrays.copyOf(z, z.length - 8)));
+    }
+
+    private static byte[] lineString(ByteOrder order, int type, double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(9 + 8 * values.length).order(order);
+        buffer.put((byte) (order == ByteOrder.BIG_ENDIAN ? 0 : 1)).putInt(type).putInt(values.length / dimensions(type));
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] ewkbWithSrid(ByteOrder order, int type, double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(13 + 8 * values.length).order(order);
+        buffer.put((byte) (order == ByteOrder.BIG_ENDIAN ? 0 : 1)).putInt(type).putInt(4326).putInt(values.length / dimensions(type));
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+        return buffer.array();
+    }
+
+    private static int dimensions(int type) {
+        if (type == 1002 || type == 2002) {
+            return 3;
+        }
+        if (type == 3002) {
+            return 4;
+        }
+        return 2 + Integer.bitCount(type & 0xC0000000);
+    }
+
+    // Printable bytes as themselves, backslashes doubled, the rest as \xHH
+    private static String escape(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            int value = b & 0xFF;
+            if (value == '\\') {
+                sb.append("\\\\");
+            } else if (value >= 0x20 && value < 0x7F && value != '"') {
+                sb.append((char) value);
+            } else {
+                sb.append(String.format("\\x%02x", value));
+            }
+        }
+        return sb.toString();
+    }
+}
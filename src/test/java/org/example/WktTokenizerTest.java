@@ -0,0 +1,58 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WktTokenizerTest {
+
+    @Test
+    void parsesLonLatPairsAsLatLon() {
+        assertArrayEquals(new double[]{49.8266253, 24.0142644, 49.8263217, 24.0138907},
+                WktTokenizer.parseLineString("LINESTRING (24.0142644 49.8266253, 24.0138907 49.8263217)"));
+    }
+
+    @Test
+    void parsesSignsExponentsAndLongMantissas() {
+        assertArrayEquals(new double[]{-49.5, -0.001, 20, 3, 0.12345678901234568, 123456789012345678.0},
+                WktTokenizer.parseLineString("LINESTRING(-1e-3 -49.5, +3 2E1, 123456789012345678 0.123456789012345678)"));
+    }
+
+    @Test
+    void commaWithoutSpaceSeparatesPoints() {
+        assertArrayEquals(new double[]{2, 1, 4, 3}, WktTokenizer.parseLineString("LINESTRING(1 2,3 4)"));
+        assertArrayEquals(new double[]{20, 0.001, 4, 3}, WktTokenizer.parseLineString("LINESTRING(1e-3 2E1,3 4)"));
+        assertArrayEquals(new double[]{2.5, 1.5, 4, 3}, WktTokenizer.parseLineString("LINESTRING(1.5 2.5,3 4)"));
+    }
+
+    @Test
+    void readsDecimalCommasInDecimalCommaMode() {
+        assertArrayEquals(new double[]{49.82, 24.03, 49.83, 24.04},
+                WktTokenizer.parseLineString("LINESTRING (24,03 49,82, 24,04 49,83)", true));
+        assertArrayEquals(new double[]{20.5, -0.0015, 4, 3},
+                WktTokenizer.parseLineString("LINESTRING (-1,5e-3 2,05E1, 3 4)", true));
+        // Standard text reads the same as long as points are separated by ", "
+        assertArrayEquals(new double[]{49.8266253, 24.0142644, 49, 24},
+                WktTokenizer.parseLineString("LINESTRING (24.0142644 49.8266253, 24 49)", true));
+        assertArrayEquals(new double[]{2.5, 1.5, 4, 3}, WktTokenizer.parseLineString("LINESTRING(1.5 2.5,3 4)", true));
+        assertArrayEquals(new double[]{20, 0.001, 4, 3}, WktTokenizer.parseLineString("LINESTRING(1e-3 2E1,3 4)", true));
+    }
+
+    @Test
+    void emptyForOtherGeometries() {
+        assertFalse(WktTokenizer.isLineString("POINT (1 2)"));
+        assertTrue(WktTokenizer.isLineString("LINESTRING EMPTY"));
+        assertArrayEquals(new double[0], WktTokenizer.parseLineString("POINT (1 2)"));
+        assertArrayEquals(new double[0], WktTokenizer.parseLineString("LINESTRING EMPTY"));
+        assertArrayEquals(new double[0], WktTokenizer.parseLineString(null));
+    }
+
+    @Test
+    void rejectsMalformedNumbers() {
+        assertThrows(NumberFormatException.class, () -> WktTokenizer.parseLineString("LINESTRING (24.0 x, 1 2)"));
+        assertThrows(NumberFormatException.class, () -> WktTokenizer.parseLineString("LINESTRING (24.0)"));
+    }
+}